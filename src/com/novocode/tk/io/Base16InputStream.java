@@ -0,0 +1,166 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import com.novocode.tk.util.Base16;
+
+
+/**
+ * An InputStream filter which decodes Base16 code read from another
+ * InputStream. Whitespace (all characters &lt;= 0x20) between the
+ * hexadecimal digits is ignored.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.Base16
+ * @see com.novocode.tk.io.Base16OutputStream
+ */
+
+public final class Base16InputStream extends FilterInputStream
+{
+  private static final int BLOCK = 4096;
+
+  private final byte[] enc = new byte[BLOCK];
+  private final byte[] dec = new byte[BLOCK/2 + 1];
+  private int pos, count;
+  private int pending = -1;
+  private boolean eof;
+
+
+  /**
+   * Creates a new Base16InputStream.
+   *
+   * @param in the InputStream from which the Base16 code is read
+   */
+
+  public Base16InputStream(InputStream in) { super(in); }
+
+
+  public int read() throws IOException
+  {
+    if(pos == count && !fill()) return -1;
+    return dec[pos++] & 0xFF;
+  }
+
+
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    if(len == 0) return 0;
+    if(pos == count && !fill()) return -1;
+    int l = count-pos < len ? count-pos : len;
+    System.arraycopy(dec, pos, b, off, l);
+    pos += l;
+    return l;
+  }
+
+
+  public long skip(long n) throws IOException
+  {
+    long skipped = 0;
+    while(skipped < n)
+    {
+      if(pos == count && !fill()) break;
+      int l = count-pos;
+      if(l > n-skipped) l = (int)(n-skipped);
+      pos += l;
+      skipped += l;
+    }
+    return skipped;
+  }
+
+
+  public int available() throws IOException { return count-pos; }
+
+
+  public boolean markSupported() { return false; }
+
+
+  public void mark(int readlimit) {}
+
+
+  public void reset() throws IOException
+  {
+    throw new IOException("mark/reset not supported");
+  }
+
+
+  private boolean fill() throws IOException
+  {
+    pos = count = 0;
+    while(count == 0)
+    {
+      if(eof) return false;
+      int n = in.read(enc, 0, BLOCK);
+      if(n <= 0)
+      {
+        eof = true;
+        if(pending != -1)
+          throw new IOException("Unexpected end of Base16 code");
+      }
+      else decode(n);
+    }
+    return true;
+  }
+
+
+  private void decode(int len) throws IOException
+  {
+    int si = 0, di = 0;
+
+    while(si < len)
+    {
+      if(pending == -1)
+      {
+        // Fast path: Decode pairs of valid digits
+        while(si+2 <= len)
+        {
+          int hi = Base16.decodeChar(enc[si]), lo = Base16.decodeChar(enc[si+1]);
+          if((hi|lo) < 0) break;
+          dec[di++] = (byte)((hi<<4) | lo);
+          si += 2;
+        }
+        if(si >= len) break;
+      }
+
+      byte b = enc[si++];
+      int n = Base16.decodeChar(b);
+      if(n < 0)
+      {
+        if((b & 0xFF) <= 0x20) continue;
+        throw new IOException("Invalid character in Base16 code: "+(char)(b & 0xFF));
+      }
+      if(pending == -1) pending = n;
+      else
+      {
+        dec[di++] = (byte)((pending<<4) | n);
+        pending = -1;
+      }
+    }
+
+    count = di;
+  }
+}
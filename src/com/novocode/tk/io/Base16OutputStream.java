@@ -0,0 +1,82 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import com.novocode.tk.util.Base16;
+
+
+/**
+ * An OutputStream filter which Base16-encodes all data that is written
+ * to it.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.Base16
+ * @see com.novocode.tk.io.Base16InputStream
+ */
+
+public final class Base16OutputStream extends FilterOutputStream
+{
+  private static final int BLOCK = 2048;
+
+  private static final byte[] DIGITS =
+  {
+    '0', '1', '2', '3', '4', '5', '6', '7',
+    '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+  };
+
+  private final byte[] enc = new byte[BLOCK*2];
+
+
+  /**
+   * Creates a new Base16OutputStream.
+   *
+   * @param out the OutputStream to which the Base16 code is written
+   */
+
+  public Base16OutputStream(OutputStream out) { super(out); }
+
+
+  public void write(int b) throws IOException
+  {
+    enc[0] = DIGITS[(b >> 4) & 15];
+    enc[1] = DIGITS[b & 15];
+    out.write(enc, 0, 2);
+  }
+
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    while(len > 0)
+    {
+      int l = len < BLOCK ? len : BLOCK;
+      out.write(enc, 0, Base16.encode(b, off, l, enc, 0));
+      off += l;
+      len -= l;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import com.novocode.tk.util.Base64;
+
+
+/**
+ * An InputStream filter which decodes Base64 code read from another
+ * InputStream. The code is decoded in blocks, 4 characters at a time,
+ * so that arbitrarily large amounts of data can be decoded in constant
+ * memory.
+ *
+ * <p>Like Base64.decode(), this stream ignores all characters which
+ * are not part of the Base64 alphabet (e.g. line breaks) and treats
+ * the first '=' character as the end of the code.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.Base64
+ * @see com.novocode.tk.io.Base64OutputStream
+ */
+
+public final class Base64InputStream extends FilterInputStream
+{
+  private static final int BLOCK = 4096;
+
+  private final byte[] enc = new byte[BLOCK];
+  private final byte[] dec = new byte[BLOCK/4*3 + 3];
+  private int pos, count;
+  private int state, group;
+  private boolean eof;
+
+
+  /**
+   * Creates a new Base64InputStream.
+   *
+   * @param in the InputStream from which the Base64 code is read
+   */
+
+  public Base64InputStream(InputStream in) { super(in); }
+
+
+  public int read() throws IOException
+  {
+    if(pos == count && !fill()) return -1;
+    return dec[pos++] & 0xFF;
+  }
+
+
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    if(len == 0) return 0;
+    if(pos == count && !fill()) return -1;
+    int l = count-pos < len ? count-pos : len;
+    System.arraycopy(dec, pos, b, off, l);
+    pos += l;
+    return l;
+  }
+
+
+  public long skip(long n) throws IOException
+  {
+    long skipped = 0;
+    while(skipped < n)
+    {
+      if(pos == count && !fill()) break;
+      int l = count-pos;
+      if(l > n-skipped) l = (int)(n-skipped);
+      pos += l;
+      skipped += l;
+    }
+    return skipped;
+  }
+
+
+  public int available() throws IOException { return count-pos; }
+
+
+  public boolean markSupported() { return false; }
+
+
+  public void mark(int readlimit) {}
+
+
+  public void reset() throws IOException
+  {
+    throw new IOException("mark/reset not supported");
+  }
+
+
+  private boolean fill() throws IOException
+  {
+    pos = count = 0;
+    while(count == 0)
+    {
+      if(eof) return false;
+      int n = in.read(enc, 0, BLOCK);
+      if(n <= 0) { flushGroup(); eof = true; }
+      else decode(n);
+    }
+    return true;
+  }
+
+
+  private void decode(int len)
+  {
+    int si = 0, di = 0;
+
+    while(si < len)
+    {
+      if(state == 0)
+      {
+        // Fast path: Decode complete groups of 4 valid characters
+        while(si+4 <= len)
+        {
+          int a = Base64.decodeChar(enc[si]), b = Base64.decodeChar(enc[si+1]);
+          int c = Base64.decodeChar(enc[si+2]), d = Base64.decodeChar(enc[si+3]);
+          if((a|b|c|d) < 0) break;
+          int g = (a<<18) | (b<<12) | (c<<6) | d;
+          dec[di]   = (byte)(g>>16);
+          dec[di+1] = (byte)(g>>8);
+          dec[di+2] = (byte)g;
+          si += 4;
+          di += 3;
+        }
+        if(si >= len) break;
+      }
+
+      int n = Base64.decodeChar(enc[si++]);
+      if(n == Base64.PAD)
+      {
+        count = di;
+        flushGroup();
+        eof = true;
+        return;
+      }
+      if(n < 0) continue; // ignore unknown characters
+
+      group = (group<<6) | n;
+      if(++state == 4)
+      {
+        dec[di]   = (byte)(group>>16);
+        dec[di+1] = (byte)(group>>8);
+        dec[di+2] = (byte)group;
+        di += 3;
+        state = 0;
+        group = 0;
+      }
+    }
+
+    count = di;
+  }
+
+
+  private void flushGroup()
+  {
+    switch(state)
+    {
+      case 3:
+        dec[count++] = (byte)(group>>10);
+        dec[count++] = (byte)(group>>2);
+        break;
+
+      case 2:
+        dec[count++] = (byte)(group>>4);
+    }
+    state = 0;
+    group = 0;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import com.novocode.tk.util.Base64;
+
+
+/**
+ * An OutputStream filter which Base64-encodes all data that is written
+ * to it. The encoding is done in blocks so that arbitrarily large amounts
+ * of data can be encoded in constant memory.
+ *
+ * <p>The last incomplete group of 3 bytes is held back until
+ * <code>finish()</code> or <code>close()</code> is called. Like the
+ * encoding methods of Base64, this stream can produce line-wrapped
+ * code (e.g. for MIME bodies), code with the URL-safe alphabet and
+ * code without padding.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.Base64
+ * @see com.novocode.tk.io.Base64InputStream
+ */
+
+public final class Base64OutputStream extends FilterOutputStream
+{
+  private static final int BLOCK = 3072;
+
+  private final int flags;
+  private final int lineLength;
+  private final byte[] lineSeparator;
+  private final byte[] dec = new byte[BLOCK];
+  private final byte[] enc;
+  private int count, column;
+  private boolean finished;
+
+
+  /**
+   * Creates a new Base64OutputStream which aligns the code to 3 byte
+   * boundaries by appending '=' characters at the end if necessary.
+   *
+   * @param out the OutputStream to which the Base64 code is written
+   */
+
+  public Base64OutputStream(OutputStream out) { this(out, true); }
+
+
+  /**
+   * Creates a new Base64OutputStream.
+   *
+   * @param out the OutputStream to which the Base64 code is written
+   * @param align if set to true the code is aligned to 3 byte boundaries
+   *              by appending '=' characters at the end if necessary.
+   */
+
+  public Base64OutputStream(OutputStream out, boolean align)
+  {
+    this(out, align ? 0 : Base64.NO_PADDING, 0, null);
+  }
+
+
+  /**
+   * Creates a new Base64OutputStream.
+   *
+   * @param out the OutputStream to which the Base64 code is written
+   * @param flags a combination of Base64.URL_SAFE and Base64.NO_PADDING,
+   *              or 0 for standard aligned code
+   * @param lineLength the maximum number of characters per line, rounded
+   *                   down to a multiple of 4, or 0 for single-line code
+   * @param lineSeparator the bytes which are written between lines, or
+   *                      <i>null</i> for single-line code
+   * @see com.novocode.tk.util.Base64#encode(byte[], int, int, byte[], int, int, int, byte[])
+   */
+
+  public Base64OutputStream(OutputStream out, int flags, int lineLength,
+                            byte[] lineSeparator)
+  {
+    super(out);
+    this.flags = flags;
+    this.lineLength = lineSeparator == null ? 0 : (lineLength/4)*4;
+    this.lineSeparator = lineSeparator;
+    enc = new byte[Base64.encodedLength(BLOCK, true)];
+  }
+
+
+  public void write(int b) throws IOException
+  {
+    if(finished) throw new IOException("Base64OutputStream already finished");
+    dec[count++] = (byte)b;
+    if(count == BLOCK) encodeBlock(count);
+  }
+
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    if(finished) throw new IOException("Base64OutputStream already finished");
+    if(count > 0)
+    {
+      int l = BLOCK-count < len ? BLOCK-count : len;
+      System.arraycopy(b, off, dec, count, l);
+      count += l;
+      off += l;
+      len -= l;
+      if(count < BLOCK) return;
+      encodeBlock(count);
+    }
+    // Encode complete blocks directly from the caller's array
+    while(len >= BLOCK)
+    {
+      writeCode(Base64.encode(b, off, BLOCK, enc, 0, flags, 0, null));
+      off += BLOCK;
+      len -= BLOCK;
+    }
+    if(len > 0)
+    {
+      System.arraycopy(b, off, dec, 0, len);
+      count = len;
+    }
+  }
+
+
+  /**
+   * Writes all complete groups of 3 bytes and flushes the underlying
+   * stream. Up to 2 bytes remain buffered until the stream is finished.
+   */
+
+  public void flush() throws IOException
+  {
+    int l = count - (count % 3);
+    if(l > 0)
+    {
+      writeCode(Base64.encode(dec, 0, l, enc, 0, flags, 0, null));
+      System.arraycopy(dec, l, dec, 0, count-l);
+      count -= l;
+    }
+    out.flush();
+  }
+
+
+  /**
+   * Writes the remaining buffered data including the final (padded)
+   * group without closing the underlying stream. No more data can be
+   * written after calling this method.
+   */
+
+  public void finish() throws IOException
+  {
+    if(finished) return;
+    finished = true;
+    encodeBlock(count);
+  }
+
+
+  /**
+   * Finishes the Base64 code and closes the underlying stream.
+   */
+
+  public void close() throws IOException
+  {
+    try { finish(); }
+    finally { out.close(); }
+  }
+
+
+  private void encodeBlock(int len) throws IOException
+  {
+    if(len > 0) writeCode(Base64.encode(dec, 0, len, enc, 0, flags, 0, null));
+    count = 0;
+  }
+
+
+  /* Writes the single-line code in enc, inserting line separators when
+   * lines are wrapped. No separator is written after the last line. */
+
+  private void writeCode(int len) throws IOException
+  {
+    if(lineLength == 0) { out.write(enc, 0, len); return; }
+    int off = 0;
+    while(len > 0)
+    {
+      if(column == lineLength)
+      {
+        out.write(lineSeparator, 0, lineSeparator.length);
+        column = 0;
+      }
+      int l = lineLength-column < len ? lineLength-column : len;
+      out.write(enc, off, l);
+      column += l;
+      off += l;
+      len -= l;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.*;
+
+
+/**
+ * A BoundedInputStream reads at most a fixed number of bytes from an
+ * underlying InputStream and then reports the end of the stream.
+ * Closing a BoundedInputStream closes the underlying stream.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ */
+
+public final class BoundedInputStream extends FilterInputStream
+{
+  private long rest;
+
+
+  /**
+   * Create a new BoundedInputStream.
+   *
+   * @param in the underlying InputStream.
+   * @param count the maximum number of bytes to read.
+   */
+
+  public BoundedInputStream(InputStream in, long count)
+  {
+    super(in);
+    rest = count;
+  }
+
+
+  public int read() throws IOException
+  {
+    if(rest == 0) return -1;
+    int c = in.read();
+    if(c >= 0) rest--;
+    return c;
+  }
+
+
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    if(len == 0) return 0;
+    if(rest == 0) return -1;
+    int n = in.read(b, off, len < rest ? len : (int)rest);
+    if(n > 0) rest -= n;
+    return n;
+  }
+
+
+  public long skip(long n) throws IOException
+  {
+    if(n <= 0) return 0;
+    long s = in.skip(n < rest ? n : rest);
+    rest -= s;
+    return s;
+  }
+
+
+  public int available() throws IOException
+  {
+    int a = in.available();
+    return a < rest ? a : (int)rest;
+  }
+
+
+  public boolean markSupported() { return false; }
+}
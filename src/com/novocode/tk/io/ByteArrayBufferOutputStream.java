@@ -33,6 +33,7 @@ import java.io.*;
  * </dl>
  *
  * @author Stefan Zeiger
+ * @see com.novocode.tk.io.SegmentedBufferOutputStream
  */
 
 
@@ -0,0 +1,304 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import com.novocode.tk.util.ByteString;
+
+
+/**
+ * An InputStream that reads from a ReadableByteChannel and provides
+ * methods for viewing lines of (ASCII / ISO-8859-1) text and blocks of
+ * bytes in ByteString objects without copying them.
+ *
+ * <p>The data is read from the channel into a buffer which starts with
+ * the initial size and grows up to the maximum size when a line or block
+ * does not fit into it or when reads from the channel keep filling the
+ * whole buffer. The buffer is a heap buffer because ByteString views need
+ * to access its array. The stream supports <code>mark()</code> and
+ * <code>reset()</code> for all data that fits into the maximum buffer
+ * size. The channel must be in blocking mode.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.ByteStringInputStream
+ * @see com.novocode.tk.util.ByteString
+ */
+
+public final class ByteStringChannelInputStream extends InputStream
+{
+  private final ReadableByteChannel ch;
+  private final int maxSize;
+  private byte[] data;
+  private ByteBuffer bb;
+  private int pos, end, scanned;
+  private int mark = -1, markLimit;
+  private boolean eof, grow;
+
+
+  /**
+   * Construct a new ByteStringChannelInputStream with an initial buffer
+   * size of 8 KB and a maximum buffer size of 1 MB.
+   *
+   * @param ch the channel from which to read
+   */
+
+  public ByteStringChannelInputStream(ReadableByteChannel ch)
+  {
+    this(ch, 8192, 1024*1024);
+  }
+
+
+  /**
+   * Construct a new ByteStringChannelInputStream.
+   *
+   * @param ch the channel from which to read
+   * @param initialSize the initial buffer size in bytes
+   * @param maxSize the maximum buffer size in bytes
+   * @exception java.nio.channels.IllegalBlockingModeException if the
+   *            channel is a SelectableChannel in non-blocking mode.
+   */
+
+  public ByteStringChannelInputStream(ReadableByteChannel ch,
+                                      int initialSize, int maxSize)
+  {
+    if(ch instanceof SelectableChannel && !((SelectableChannel)ch).isBlocking())
+      throw new IllegalBlockingModeException();
+    if(initialSize < 16) initialSize = 16;
+    this.ch = ch;
+    this.maxSize = maxSize > initialSize ? maxSize : initialSize;
+    data = new byte[initialSize];
+    bb = ByteBuffer.wrap(data);
+  }
+
+
+  public int available() { return end-pos; }
+
+
+  /**
+   * Close the underlying channel.
+   */
+
+  public void close() throws IOException { ch.close(); }
+
+
+  public boolean markSupported() { return true; }
+
+
+  public void mark(int readlimit)
+  {
+    mark = pos;
+    markLimit = readlimit;
+  }
+
+
+  public void reset() throws IOException
+  {
+    if(mark < 0) throw new IOException("Stream not marked or mark invalidated");
+    pos = mark;
+    scanned = 0;
+  }
+
+
+  public int read() throws IOException
+  {
+    if(pos == end && !fill(1)) return -1;
+    return data[pos++] & 0xFF;
+  }
+
+
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    if(len == 0) return 0;
+    if(pos == end)
+    {
+      if(len >= data.length && mark < 0 && !eof)
+      {
+        int n;
+        do n = ch.read(ByteBuffer.wrap(b, off, len)); while(n == 0);
+        if(n < 0) eof = true;
+        return n;
+      }
+      if(!fill(1)) return -1;
+    }
+    int n = end-pos;
+    if(n > len) n = len;
+    System.arraycopy(data, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+
+  public long skip(long n) throws IOException
+  {
+    long s = 0;
+    while(s < n && (pos < end || fill(1)))
+    {
+      int l = end-pos;
+      if(l > n-s) l = (int)(n-s);
+      pos += l;
+      s += l;
+    }
+    return s;
+  }
+
+
+  /**
+   * Create a view of the next line (terminated by "\n" or "\r\n") in the
+   * stream in a supplied ByteString. The data is only valid until new
+   * data is read from the stream by any means.
+   *
+   * @param b an existing ByteString
+   * @return the ByteString which was passed in or <I>null</I> if the
+   *         end of the stream was already reached.
+   * @exception java.io.IOException if a read operation on the underlying
+   *            channel fails or the line does not fit into the maximum
+   *            buffer size.
+   */
+
+  public ByteString viewLine(ByteString b) throws IOException
+  {
+    scanned = 0;
+    while(true)
+    {
+      byte[] d = data;
+      for(int i=pos+scanned, e=end; i<e; i++)
+      {
+        if(d[i] == (byte)'\n')
+        {
+          int l = i-pos;
+          if(l > 0 && d[i-1] == (byte)'\r') l--;
+          view(b, l);
+          pos = i+1;
+          return b;
+        }
+      }
+      scanned = end-pos;
+      if(!fill(scanned+1))
+      {
+        if(pos == end) return null;
+        int l = end-pos;
+        if(data[end-1] == (byte)'\r') l--;
+        view(b, l);
+        pos = end;
+        return b;
+      }
+    }
+  }
+
+
+  /**
+   * Create a view of the next block of bytes in the stream in a supplied
+   * ByteString. The data is only valid until new data is read from the
+   * stream by any means.
+   *
+   * @param b an existing ByteString
+   * @param len the length of the block. The block is shorter if the
+   *            end of the stream is reached.
+   * @return the ByteString which was passed in or <I>null</I> if the
+   *         end of the stream was already reached.
+   * @exception java.io.IOException if a read operation on the underlying
+   *            channel fails or the block does not fit into the maximum
+   *            buffer size.
+   */
+
+  public ByteString viewBlock(ByteString b, int len) throws IOException
+  {
+    fill(len);
+    if(pos == end && len > 0) return null;
+    int l = end-pos;
+    if(l > len) l = len;
+    view(b, l);
+    pos += l;
+    return b;
+  }
+
+
+  private void view(ByteString b, int l)
+  {
+    b.data = data;
+    b.offset = pos;
+    b.length = l;
+  }
+
+
+  /* Makes sure that at least n bytes are available at pos. Returns
+   * false if the end of the stream is reached before. */
+
+  private boolean fill(int n) throws IOException
+  {
+    if(end-pos >= n) return true;
+    if(eof) return false;
+    if(mark >= 0 && pos-mark > markLimit) mark = -1;
+    int keep = mark >= 0 ? mark : pos;
+    int need = (pos-keep)+n;
+    if(need > maxSize)
+      throw new IOException("Data does not fit into buffer of "+maxSize+" bytes");
+    if(need > data.length || (grow && data.length < maxSize))
+    {
+      int size = data.length*2;
+      while(size < need) size *= 2;
+      if(size > maxSize) size = maxSize;
+      byte[] nd = new byte[size];
+      System.arraycopy(data, keep, nd, 0, end-keep);
+      data = nd;
+      bb = ByteBuffer.wrap(data);
+      shift(keep);
+      grow = false;
+    }
+    else if(data.length-keep < need || keep > data.length/2)
+    {
+      System.arraycopy(data, keep, data, 0, end-keep);
+      shift(keep);
+    }
+
+    while(end-pos < n)
+    {
+      bb.limit(data.length);
+      bb.position(end);
+      int r = ch.read(bb);
+      if(r < 0)
+      {
+        eof = true;
+        return false;
+      }
+      end += r;
+      if(end == data.length) grow = true;
+    }
+    return true;
+  }
+
+
+  private void shift(int d)
+  {
+    pos -= d;
+    end -= d;
+    if(mark >= 0) mark -= d;
+  }
+}
@@ -39,6 +39,7 @@ import com.novocode.tk.util.ByteString;
  *
  * @author Stefan Zeiger
  * @see com.novocode.tk.util.ByteString
+ * @see com.novocode.tk.io.ByteStringChannelInputStream
  */
 
 public final class ByteStringInputStream extends InputStream
@@ -89,6 +90,7 @@ public final class ByteStringInputStream extends InputStream
     {
       length = in.read(data, 0, data.length);
       offset = 0;
+      if(length < 0) length = 0;
     }
   }
 
@@ -97,23 +99,21 @@ public final class ByteStringInputStream extends InputStream
   {
     if(length == 0) return in.read();
     length--;
-    return (int)data[offset++];
+    return data[offset++] & 0xFF;
   }
 
 
   public int read(byte[] b, int off, int len) throws IOException
   {
-    int num = 0;
     if(length > 0)
     {
       int copylen = len<length? len:length;
       System.arraycopy(data, offset, b, off, copylen);
       offset += copylen;
       length -= copylen;
-      num += copylen;
+      return copylen;
     }
-    if(len > 0) num += in.read(b, off, len);
-    return num;
+    return in.read(b, off, len);
   }
 
 
@@ -0,0 +1,713 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * CachingNFile wraps another NFile and caches the results of the
+ * attribute methods <EM>exists()</EM>, <EM>hasContent()</EM>,
+ * <EM>isListable()</EM>, <EM>lastModified()</EM> and <EM>length()</EM>
+ * as well as directory listings. This is useful for NFile implementations
+ * like <EM>JdbcNFileManager</EM>'s where every attribute lookup is a
+ * round trip to the backing store.
+ *
+ * <P>All CachingNFiles which are obtained from each other through
+ * <EM>getSub()</EM> and <EM>getParent()</EM> share the same cache.
+ * Cache entries expire after a configurable time to live and the least
+ * recently used entries are discarded when the cache exceeds its maximum
+ * size. Modifications which are made through a CachingNFile
+ * (<EM>getOutputStream()</EM>, <EM>delete()</EM>,
+ * <EM>createListable()</EM>, <EM>moveTo()</EM>) invalidate the affected
+ * entries. Modifications which bypass the wrapper only become visible
+ * when the cached entries expire or are invalidated explicitly.
+ *
+ * <P>Entries are keyed by path names, so paths containing '..' are
+ * cached independently of their normalized equivalents.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.NFile
+ */
+
+public class CachingNFile extends NFile
+{
+  /**
+   * The default time to live of cache entries in milliseconds.
+   */
+
+  public static final long DEFAULT_TTL = 5000L;
+
+
+  /**
+   * The default maximum number of cache entries.
+   */
+
+  public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+
+  private static final int EXISTS   = 1;
+  private static final int CONTENT  = 2;
+  private static final int LISTABLE = 4;
+  private static final int MTIME    = 8;
+  private static final int LENGTH   = 16;
+  private static final int LIST     = 32;
+
+
+  private final NFile base;
+  private final Cache cache;
+
+
+  /**
+   * Create a new CachingNFile with a new cache which uses the default
+   * time to live and maximum size.
+   *
+   * @param base the NFile to wrap.
+   */
+
+  public CachingNFile(NFile base)
+  {
+    this(base, DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+  }
+
+
+  /**
+   * Create a new CachingNFile with a new cache.
+   *
+   * @param base the NFile to wrap.
+   * @param ttl the time to live of cache entries in milliseconds.
+   * @param maxEntries the maximum number of cache entries.
+   */
+
+  public CachingNFile(NFile base, long ttl, int maxEntries)
+  {
+    this(base, new Cache(ttl, maxEntries));
+  }
+
+
+  private CachingNFile(NFile base, Cache cache)
+  {
+    this.base = base;
+    this.cache = cache;
+    path = base.getPath();
+  }
+
+
+  /**
+   * Return the NFile which is wrapped by this CachingNFile.
+   */
+
+  public NFile getWrapped()
+  {
+    return base;
+  }
+
+
+  /* Cache handling ********************************************************/
+
+  /**
+   * Return the number of attribute and listing lookups which were
+   * answered from the cache.
+   */
+
+  public long getHitCount()
+  {
+    synchronized(cache) { return cache.hits; }
+  }
+
+
+  /**
+   * Return the number of attribute and listing lookups which had to be
+   * passed on to the wrapped NFile.
+   */
+
+  public long getMissCount()
+  {
+    synchronized(cache) { return cache.misses; }
+  }
+
+
+  /**
+   * Return the number of entries in the cache.
+   */
+
+  public int getCacheSize()
+  {
+    synchronized(cache) { return cache.map.size(); }
+  }
+
+
+  /**
+   * Reset the hit and miss counters to 0.
+   */
+
+  public void resetStatistics()
+  {
+    synchronized(cache) { cache.hits = cache.misses = 0; }
+  }
+
+
+  /**
+   * Discard the cached data for this NFile, its children and its parent.
+   * This should be called after the resource was modified without going
+   * through a CachingNFile.
+   */
+
+  public void invalidate()
+  {
+    cache.invalidate(path, false);
+  }
+
+
+  /**
+   * Discard all cached data.
+   */
+
+  public void invalidateAll()
+  {
+    synchronized(cache)
+    {
+      cache.map.clear();
+      cache.generation++;
+    }
+  }
+
+
+  /* NFile handling ********************************************************/
+
+  public NFile getParent()
+  {
+    NFile p = base.getParent();
+    if(p == null) return null;
+    else return new CachingNFile(p, cache);
+  }
+
+
+  public NFile getSub(String name)
+  {
+    return new CachingNFile(base.getSub(name), cache);
+  }
+
+
+  public String getCanonicalPath() throws NFileException
+  {
+    return base.getCanonicalPath();
+  }
+
+
+  /* Properties ************************************************************/
+
+  public boolean exists() throws NFileException
+  {
+    long gen;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, EXISTS);
+      if(e != null) return e.exists;
+      gen = cache.generation;
+    }
+    boolean b = base.exists();
+    synchronized(cache)
+    {
+      Entry e = cache.store(path, EXISTS, gen);
+      if(e != null)
+      {
+	e.exists = b;
+	if(!b) { e.content = e.listable = false; e.valid |= CONTENT|LISTABLE; }
+      }
+    }
+    return b;
+  }
+
+
+  public boolean hasContent() throws NFileException
+  {
+    long gen;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, CONTENT);
+      if(e != null) return e.content;
+      gen = cache.generation;
+    }
+    boolean b = base.hasContent();
+    synchronized(cache)
+    {
+      Entry e = cache.store(path, CONTENT, gen);
+      if(e != null)
+      {
+	e.content = b;
+	if(b) { e.exists = true; e.valid |= EXISTS; }
+      }
+    }
+    return b;
+  }
+
+
+  public boolean isListable() throws NFileException
+  {
+    long gen;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, LISTABLE);
+      if(e != null) return e.listable;
+      gen = cache.generation;
+    }
+    boolean b = base.isListable();
+    synchronized(cache)
+    {
+      Entry e = cache.store(path, LISTABLE, gen);
+      if(e != null)
+      {
+	e.listable = b;
+	if(b) { e.exists = true; e.valid |= EXISTS; }
+      }
+    }
+    return b;
+  }
+
+
+  public long lastModified() throws NFileException
+  {
+    long gen;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, MTIME);
+      if(e != null) return e.mtime;
+      gen = cache.generation;
+    }
+    long l = base.lastModified();
+    synchronized(cache)
+    {
+      Entry e = cache.store(path, MTIME, gen);
+      if(e != null) e.mtime = l;
+    }
+    return l;
+  }
+
+
+  public boolean isLocalFile()
+  {
+    return base.isLocalFile();
+  }
+
+
+  public boolean hasURLRepresentation()
+  {
+    return base.hasURLRepresentation();
+  }
+
+
+  /* Modification **********************************************************/
+
+  public void createListable() throws NFileException
+  {
+    try { base.createListable(); }
+    finally { cache.invalidate(path, true); }
+  }
+
+
+  public String[] list() throws NFileException
+  {
+    String[] l = cachedList();
+    return (l == null) ? null : l.clone();
+  }
+
+
+  public String[] list(FilenameFilter filter) throws NFileException
+  {
+    if(filter == null) return list();
+    String[] l = cachedList();
+    if(l == null) return null;
+    File dir = base.isLocalFile() ? base.obtainFile() : null;
+    try
+    {
+      int n = 0;
+      String[] res = new String[l.length];
+      for(int i=0; i<l.length; i++)
+	if(filter.accept(dir, l[i])) res[n++] = l[i];
+      if(n == l.length) return res;
+      String[] sa = new String[n];
+      System.arraycopy(res, 0, sa, 0, n);
+      return sa;
+    }
+    finally { if(dir != null) base.releaseFile(); }
+  }
+
+
+  /**
+   * List the contents of this NFile one name at a time. A cached listing
+   * is used if there is one, otherwise the listing is streamed from the
+   * wrapped NFile without being cached.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileListing listing(FilenameFilter filter) throws NFileException
+  {
+    String[] l;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, LIST);
+      if(e == null) return base.listing(filter);
+      l = e.list;
+    }
+    if(l == null) return null;
+    File dir = null;
+    if(filter != null && base.isLocalFile())
+    {
+      dir = base.obtainFile();
+      base.releaseFile();
+    }
+    return new NFileListing.Array(l, filter, dir);
+  }
+
+
+  private String[] cachedList() throws NFileException
+  {
+    long gen;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, LIST);
+      if(e != null) return e.list;
+      gen = cache.generation;
+    }
+    String[] l = base.list();
+    synchronized(cache)
+    {
+      Entry e = cache.store(path, LIST, gen);
+      if(e != null)
+      {
+	e.list = l;
+	if(l != null) { e.listable = e.exists = true; e.valid |= LISTABLE|EXISTS; }
+      }
+    }
+    return l;
+  }
+
+
+  /**
+   * List the contents of this NFile together with their attributes. The
+   * listing is always read from the wrapped NFile and the results are
+   * used to fill the cache for this NFile and its children.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileAttributes[] listAttributes(String[] metaNames)
+    throws NFileException
+  {
+    long gen;
+    synchronized(cache) { gen = cache.generation; }
+    NFileAttributes[] a = base.listAttributes(metaNames);
+    String[] l = null;
+    if(a != null)
+    {
+      l = new String[a.length];
+      for(int i=0; i<a.length; i++) l[i] = a[i].getName();
+    }
+    synchronized(cache)
+    {
+      cache.misses++;
+      Entry e = cache.store(path, LIST, gen);
+      if(e == null) return a;
+      e.list = l;
+      if(l == null) return null;
+      e.listable = e.exists = true;
+      e.valid |= LISTABLE|EXISTS;
+      for(int i=0; i<a.length; i++)
+      {
+	Entry c = cache.store(base.getSub(a[i].getName()).getPath(),
+			      EXISTS|CONTENT|LISTABLE|MTIME|LENGTH, gen);
+	c.exists = a[i].exists();
+	c.content = a[i].hasContent();
+	c.listable = a[i].isListable();
+	c.mtime = a[i].lastModified();
+	c.length = a[i].length();
+      }
+    }
+    return a;
+  }
+
+
+  public void delete() throws NFileException
+  {
+    try { base.delete(); }
+    finally { cache.invalidate(path, false); }
+  }
+
+
+  /**
+   * Move this NFile to the location denoted by another NFile. If the
+   * destination is a CachingNFile, the move is performed by the wrapped
+   * NFiles so that optimized implementations (like renaming a local
+   * file) are used.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public void moveTo(NFile dest) throws NFileException
+  {
+    NFile d = dest;
+    if(dest instanceof CachingNFile) d = ((CachingNFile)dest).base;
+    try { base.moveTo(d); }
+    finally
+    {
+      cache.invalidate(path, false);
+      if(dest instanceof CachingNFile)
+	((CachingNFile)dest).cache.invalidate(dest.path, false);
+    }
+  }
+
+
+  /* Contents **************************************************************/
+
+  public long length() throws NFileException
+  {
+    long gen;
+    synchronized(cache)
+    {
+      Entry e = cache.lookup(path, LENGTH);
+      if(e != null) return e.length;
+      gen = cache.generation;
+    }
+    long l = base.length();
+    synchronized(cache)
+    {
+      Entry e = cache.store(path, LENGTH, gen);
+      if(e != null) e.length = l;
+    }
+    return l;
+  }
+
+
+  public InputStream getInputStream() throws NFileException
+  {
+    return base.getInputStream();
+  }
+
+
+  public InputStream getInputStream(long offset, long length)
+    throws NFileException
+  {
+    return base.getInputStream(offset, length);
+  }
+
+
+  boolean allowsConcurrentReads() { return base.allowsConcurrentReads(); }
+
+
+  /**
+   * Get an OutputStream to write the content of this NFile. The cached
+   * data for this NFile and its parent is invalidated when the stream is
+   * opened and again when it is closed.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public OutputStream getOutputStream() throws NFileException
+  {
+    OutputStream out;
+    try { out = base.getOutputStream(); }
+    finally { cache.invalidate(path, false); }
+    return new InvalidatingOutputStream(out);
+  }
+
+
+  public File obtainFile() throws NFileException
+  {
+    return base.obtainFile();
+  }
+
+
+  public void releaseFile() throws NFileException
+  {
+    base.releaseFile();
+  }
+
+
+  public ByteBuffer map(long offset, long length) throws NFileException
+  {
+    return base.map(offset, length);
+  }
+
+
+  public URL getURL() throws NFileException
+  {
+    return base.getURL();
+  }
+
+
+  /* Meta store ************************************************************/
+
+  public boolean hasMetaStore()
+  {
+    return base.hasMetaStore();
+  }
+
+
+  public String getMeta(String name) throws NFileException
+  {
+    return base.getMeta(name);
+  }
+
+
+  public void setMeta(String name, String value) throws NFileException
+  {
+    base.setMeta(name, value);
+  }
+
+
+  /* Implementation ********************************************************/
+
+  private final class InvalidatingOutputStream extends FilterOutputStream
+  {
+    private boolean closed;
+
+    InvalidatingOutputStream(OutputStream out) { super(out); }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      out.write(b, off, len);
+    }
+
+    public void close() throws IOException
+    {
+      if(closed) return;
+      closed = true;
+      try { out.close(); }
+      finally { cache.invalidate(path, false); }
+    }
+  }
+
+
+  private static final class Entry implements Serializable
+  {
+    final long created;
+    int valid;
+    boolean exists, content, listable;
+    long mtime, length;
+    String[] list;
+
+    Entry(long created) { this.created = created; }
+  }
+
+
+  private static final class Cache implements Serializable
+  {
+    final long ttl;
+    final LRUMap map;
+    long hits, misses;
+
+    /* Incremented by every invalidation. A value which was read from the
+     * wrapped NFile is only stored if no invalidation happened since the
+     * lookup which missed, otherwise a stale value could be cached. */
+    long generation;
+
+    Cache(long ttl, int maxEntries)
+    {
+      if(ttl < 0 || maxEntries < 1)
+	throw new IllegalArgumentException("ttl="+ttl+", maxEntries="+maxEntries);
+      this.ttl = ttl;
+      map = new LRUMap(maxEntries);
+    }
+
+    /* Must be called while holding the lock on the Cache */
+    Entry lookup(String p, int what)
+    {
+      Entry e = (Entry)map.get(p);
+      if(e != null && System.currentTimeMillis() - e.created > ttl)
+      {
+	map.remove(p);
+	e = null;
+      }
+      if(e == null || (e.valid & what) == 0)
+      {
+	misses++;
+	return null;
+      }
+      hits++;
+      return e;
+    }
+
+    /* Must be called while holding the lock on the Cache. Returns null
+     * if the cache was invalidated since generation gen. */
+    Entry store(String p, int what, long gen)
+    {
+      if(gen != generation) return null;
+      long now = System.currentTimeMillis();
+      Entry e = (Entry)map.get(p);
+      if(e == null || now - e.created > ttl)
+      {
+	e = new Entry(now);
+	map.put(p, e);
+      }
+      e.valid |= what;
+      return e;
+    }
+
+    /**
+     * Remove the entries for a path, all paths below it and its parent.
+     * If <EM>ancestors</EM> is true, all entries above the path are
+     * removed, too.
+     */
+
+    synchronized void invalidate(String p, boolean ancestors)
+    {
+      int slash = p.lastIndexOf('/');
+      String par = (slash < 0) ? null : p.substring(0, slash == 0 ? 1 : slash);
+      String prefix = p.endsWith("/") ? p : p + '/';
+      generation++;
+      for(Iterator it = map.keySet().iterator(); it.hasNext();)
+      {
+	String k = (String)it.next();
+	if(k.equals(p) || k.startsWith(prefix) || k.equals(par) ||
+	   (ancestors && p.startsWith(k.endsWith("/") ? k : k + '/')))
+	  it.remove();
+      }
+    }
+  }
+
+
+  private static final class LRUMap extends LinkedHashMap
+  {
+    private final int maxEntries;
+
+    LRUMap(int maxEntries)
+    {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    protected boolean removeEldestEntry(Map.Entry eldest)
+    {
+      return size() > maxEntries;
+    }
+  }
+}
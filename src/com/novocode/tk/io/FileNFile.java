@@ -23,6 +23,14 @@ package com.novocode.tk.io;
 import java.io.*;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Vector;
 
 
 /**
@@ -140,6 +148,77 @@ public class FileNFile extends NFile
   }
 
 
+  /**
+   * List the contents of this directory one name at a time. The names
+   * are read with a DirectoryStream.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileListing listing(FilenameFilter filter) throws NFileException
+  {
+    if(!f.isDirectory()) return null;
+    try
+    {
+      return new Listing(Files.newDirectoryStream(f.toPath()), filter, f);
+    }
+    catch(IOException e) { throw NFileException.getCascadeException(e); }
+  }
+
+
+  /**
+   * List the contents of this directory together with their attributes.
+   * The directory is read with a DirectoryStream and the attributes of
+   * each entry are fetched with a single bulk read.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileAttributes[] listAttributes(String[] metaNames)
+    throws NFileException
+  {
+    if(!f.isDirectory()) return null;
+    if(!hasMetaStore()) metaNames = null;
+    Vector v = new Vector();
+    try
+    {
+      DirectoryStream ds = Files.newDirectoryStream(f.toPath());
+      try
+      {
+	for(Iterator it = ds.iterator(); it.hasNext();)
+	{
+	  Path p = (Path)it.next();
+	  String n = p.getFileName().toString();
+	  NFileAttributes a;
+	  try
+	  {
+	    BasicFileAttributes ba =
+	      Files.readAttributes(p, BasicFileAttributes.class);
+	    a = new NFileAttributes
+	      (n, true, ba.isRegularFile(), ba.isDirectory(), ba.size(),
+	       ba.lastModifiedTime().toMillis(),
+	       metaNames == null ? null : collectMeta(getSub(n), metaNames));
+	  }
+	  catch(IOException e)
+	  {
+	    a = new NFileAttributes(n, false, false, false, 0L, 0L, null);
+	  }
+	  v.addElement(a);
+	}
+      }
+      finally { ds.close(); }
+    }
+    catch(IOException e) { throw NFileException.getCascadeException(e); }
+    catch(DirectoryIteratorException e)
+    {
+      throw NFileException.getCascadeException(e.getCause());
+    }
+    NFileAttributes[] res = new NFileAttributes[v.size()];
+    v.copyInto(res);
+    return res;
+  }
+
+
   public void delete() throws NFileException
   {
     if(!f.delete())
@@ -163,6 +242,32 @@ public class FileNFile extends NFile
   }
 
 
+  /**
+   * Get an InputStream to read a range of this file. The stream starts
+   * reading at the offset without reading the preceding bytes.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public InputStream getInputStream(long offset, long length)
+    throws NFileException
+  {
+    checkRange(offset, length);
+    try
+    {
+      FileInputStream in = new FileInputStream(f);
+      try { in.getChannel().position(offset); }
+      catch(IOException e)
+      {
+	in.close();
+	throw e;
+      }
+      return (length < 0) ? (InputStream)in : new BoundedInputStream(in, length);
+    }
+    catch(IOException e) { throw NFileException.getCascadeException(e); }
+  }
+
+
   public OutputStream getOutputStream() throws NFileException
   {
     try
@@ -173,6 +278,22 @@ public class FileNFile extends NFile
   }
 
 
+  /**
+   * Map a range of this file read-only into memory. The real file is
+   * mapped instead of a temporary copy. Each successful call must be
+   * paired with a call of <EM>releaseFile()</EM> when the buffer is no
+   * longer used.
+   *
+   * @exception NFileException if the method fails for some reason.
+   * @see com.novocode.tk.io.NFile#releaseFile()
+   */
+
+  public ByteBuffer map(long offset, long length) throws NFileException
+  {
+    return mapFile(f, offset, length);
+  }
+
+
   public File obtainFile() throws NFileException
   {
     return f;
@@ -198,4 +319,37 @@ public class FileNFile extends NFile
     }
     catch(MalformedURLException e) { throw new NFileException(e); }
   }
+
+
+  private static final class Listing extends NFileListing
+  {
+    private final DirectoryStream ds;
+    private final Iterator it;
+
+    Listing(DirectoryStream ds, FilenameFilter filter, File dir)
+    {
+      super(filter, dir);
+      this.ds = ds;
+      it = ds.iterator();
+    }
+
+    protected String fetch() throws NFileException
+    {
+      try
+      {
+	if(!it.hasNext()) return null;
+	return ((Path)it.next()).getFileName().toString();
+      }
+      catch(DirectoryIteratorException e)
+      {
+	throw NFileException.getCascadeException(e.getCause());
+      }
+    }
+
+    protected void release() throws NFileException
+    {
+      try { ds.close(); }
+      catch(IOException e) { throw NFileException.getCascadeException(e); }
+    }
+  }
 }
@@ -21,12 +21,22 @@
 package com.novocode.tk.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 
 
 /**
  * An HTMLStyleWriter is an extended PrintWriter that contains
  * methods for writing HTML code in selected styles.
  *
+ * <p>The fixed parts of the markup are kept as pre-encoded byte arrays.
+ * When an HTMLStyleWriter is created for an OutputStream, it encodes
+ * text into its own byte buffer and copies the markup into the same
+ * buffer without encoding it again.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Immature.
  * </dl>
@@ -42,11 +52,122 @@ public final class HTMLStyleWriter extends PrintWriter
 
   public int style;
 
+  private final ByteOutput bytes;
+
+  private static final Markup
+    CRLF = new Markup("\r\n"),
+    FORM_START = new Markup("<FORM ENCTYPE=\""),
+    FORM_DEFAULT_ENC = new Markup("application/x-www-form-urlencoded"),
+    FORM_METHOD = new Markup("\" METHOD=POST>\r\n"),
+    FORM_CONTEXT = new Markup("<INPUT TYPE=HIDDEN NAME=\"__context\" VALUE=\""),
+    TAG_END = new Markup("\">\r\n"),
+    FORM_END = new Markup("</FORM>\r\n"),
+    PAGE_START = new Markup("<HTML>\r\n<HEAD>\r\n<TITLE>"),
+    TITLE_END = new Markup("</TITLE>\r\n</HEAD>\r\n"),
+    FANCY_BODY = new Markup
+      ("<BODY BGCOLOR=\"#B2B2B2\" TEXT=\"#000000\" "+
+       "ALINK=\"#FF0000\" VLINK=\"#551A8B\" "+
+       "LINK=\"#0000EE\">\r\n"+
+       "<TABLE CELLPADDING=3 CELLSPACING=0 WIDTH=\"100%\" "+
+       "BORDER=0><TR>\r\n"+
+       "<TD BGCOLOR=\"#000000\" ALIGN=LEFT>"+
+       "<FONT FACE=LUCIDA COLOR=\"#FE9304\"><B><I>"),
+    FANCY_TITLE_RIGHT = new Markup
+      ("</I></B></FONT></TD>"+
+       "<TD BGCOLOR=\"#000000\" ALIGN=RIGHT>"+
+       "<FONT FACE=HELVETICA COLOR=\"#ffffff\"><B>"),
+    NETFORGE = new Markup("NetForge"),
+    FANCY_TITLE_END = new Markup("</B></FONT></TD></TR></TABLE><P>\r\n"),
+    FANCY_BACK = new Markup("<FONT FACE=HELVETICA SIZE=-1>Go back to: <B>"),
+    FANCY_BACK_END = new Markup("</B></FONT>\r\n"),
+    FANCY_ERROR = new Markup
+      ("<P><TABLE CELLPADDING=3 CELLSPACING=0 WIDTH=\"100%\" "+
+       "BORDER=0><TR>\r\n"+
+       "<TD BGCOLOR=\"#000000\" ALIGN=LEFT>"+
+       "<FONT FACE=LUCIDA COLOR=\"#FE9304\"><B><I>"),
+    FANCY_ERROR_END = new Markup
+      ("</I></B></FONT></TD>"+
+       "<TD BGCOLOR=\"#000000\" ALIGN=RIGHT>"+
+       "<FONT FACE=HELVETICA COLOR=\"#FFFFFF\"><B>"+
+       "Error"+
+       "</B></FONT></TD></TR></TABLE><P>\r\n"),
+    FANCY_HR = new Markup("<HR NOSHADE>\r\n"),
+    P = new Markup("<P>\r\n"),
+    TEXT_BODY = new Markup("<BODY>\r\n<H1>"),
+    STANDARD_BODY = new Markup("<BODY BGCOLOR=\"#B2B2B2\">\r\n<H1>"),
+    H1_END = new Markup("</H1>\r\n"),
+    BACK = new Markup("Back to: "),
+    ERROR = new Markup("\r\n<HR>\r\n<CENTER><B>Error: "),
+    ERROR_END = new Markup(".</B></CENTER>"),
+    SEPARATOR = new Markup("\r\n<HR>\r\n<P>\r\n"),
+    FANCY_FOOTER = new Markup
+      ("<HR NOSHADE>\r\n<ADDRESS>\r\n"+
+       "<FONT FACE=HELVETICA SIZE=\"-1\"><I>"+
+       "Created by <B>"),
+    NETFORGE_SLASH = new Markup("NetForge/"),
+    FANCY_FOOTER_CLASS = new Markup("</B> ("),
+    FANCY_FOOTER_HOST = new Markup(") @ <B><A HREF=\"/\">"),
+    FANCY_FOOTER_END = new Markup
+      ("</A></B></FONT></ADDRESS>\r\n</BODY>\r\n</HTML>\r\n"),
+    FANCY_FOOTER_APP_END = new Markup
+      (")</FONT></ADDRESS>\r\n</BODY>\r\n</HTML>\r\n"),
+    FOOTER = new Markup("<HR>\r\n<ADDRESS>Created by "),
+    FOOTER_CLASS = new Markup(" ("),
+    FOOTER_HOST = new Markup(") @ <A HREF=\"/\">"),
+    FOOTER_END = new Markup("</A></ADDRESS>\r\n</BODY>\r\n</HTML>\r\n"),
+    FOOTER_APP_END = new Markup(")</ADDRESS>\r\n</BODY>\r\n</HTML>\r\n"),
+    FANCY_ITEM = new Markup
+      ("<P><BR><TABLE CELLPADDING=3 CELLSPACING=0 "+
+       "WIDTH=\"100%\" BORDER=0><TR>\r\n"+
+       "<TD BGCOLOR=\"#9A9A9A\" ALIGN=LEFT>"+
+       "<FONT FACE=HELVETICA COLOR=\"#000000\"><B>"),
+    FANCY_ITEM_CELL_END = new Markup("</B></FONT></TD>"),
+    FANCY_ITEM_RIGHT = new Markup
+      ("<TD BGCOLOR=\"#9A9A9A\" ALIGN=RIGHT>"+
+       "<FONT FACE=HELVETICA COLOR=\"#B2B2B2\"><B>"),
+    FANCY_ITEM_END = new Markup("</TR></TABLE><P>\r\n"),
+    H3 = new Markup("<H3>"),
+    H3_SUB = new Markup(" <I>("),
+    H3_SUB_END = new Markup(")</I>"),
+    H3_END = new Markup("</H3>\r\n"),
+    FANCY_SMALL_I = new Markup("<FONT FACE=HELVETICA SIZE=-1><I>"),
+    FANCY_SMALL_I_END = new Markup("</I><P></FONT>\r\n"),
+    I = new Markup("<I>"),
+    I_BR_END = new Markup("</I><BR>\r\n"),
+    FANCY_SMALL = new Markup("<FONT FACE=HELVETICA SIZE=-1>"),
+    FANCY_SMALL_END = new Markup("<P></FONT>\r\n"),
+    FANCY_TEXT_PAGE = new Markup
+      ("<CENTER><TABLE BORDER=0 WIDTH=\"90%\" CELLPADDING=0 "+
+       "CELLSPACING=0><TR><TD><FONT FACE=HELVETICA SIZE=-1><BR>"),
+    FANCY_TEXT_PAGE_END = new Markup
+      ("</FONT></TD></TR></TABLE></CENTER><P>\r\n"),
+    HR = new Markup("<HR>\r\n"),
+    BUTTON_AREA = new Markup
+      ("<TABLE CELLPADDING=0 CELLSPACING=0 BORDER=0 WIDTH=\"100%\">"+
+       "<TR><TD ALIGN=LEFT>"),
+    BUTTON_AREA_SEP = new Markup("</TD><TD ALIGN=RIGHT>"),
+    BUTTON_AREA_END = new Markup("</TD></TR></TABLE>"),
+    FANCY_BUTTON = new Markup
+      ("<FONT FACE=LUCIDA SIZE=-1><I><INPUT TYPE=SUBMIT NAME=\""),
+    BUTTON = new Markup("<INPUT TYPE=SUBMIT NAME=\""),
+    BUTTON_VALUE = new Markup("__button\" VALUE=\"  "),
+    FANCY_BUTTON_END = new Markup("  \"></I></FONT>\r\n"),
+    BUTTON_END = new Markup("  \">\r\n"),
+    FANCY_RESET = new Markup
+      ("<FONT FACE=LUCIDA SIZE=-1><I><INPUT TYPE=RESET VALUE=\"  Reset "+
+       "form  \"></I></FONT>\r\n"),
+    RESET = new Markup("<INPUT TYPE=RESET VALUE=\"  Reset form  \">\r\n"),
+    FANCY_LIST = new Markup("<UL><FONT FACE=HELVETICA SIZE=-1>\r\n"),
+    LIST = new Markup("<UL>\r\n"),
+    FANCY_LIST_END = new Markup("</FONT></UL>\r\n"),
+    LIST_END = new Markup("</UL>\r\n"),
+    LIST_ITEM = new Markup("<P><LI>"),
+    BR = new Markup("<BR>");
+
 
   public HTMLStyleWriter(OutputStream os, int style)
   {
-    super(os);
-    this.style = style;
+    this(new ByteOutput(os), style);
   }
 
 
@@ -54,6 +175,8 @@ public final class HTMLStyleWriter extends PrintWriter
   {
     super(wr);
     this.style = style;
+    bytes = (wr instanceof ByteOutput && ((ByteOutput)wr).asciiCompatible) ?
+      (ByteOutput)wr : null;
   }
 
 
@@ -65,20 +188,20 @@ public final class HTMLStyleWriter extends PrintWriter
 
   public void sendFormHeader(String context, String encoding)
   {
-    print("<FORM ENCTYPE=\"");
+    send(FORM_START);
     if(encoding != null) print(encoding);
-    else print("application/x-www-form-urlencoded");
-    print("\" METHOD=POST>\r\n");
+    else send(FORM_DEFAULT_ENC);
+    send(FORM_METHOD);
     if(context != null)
     {
-      print("<INPUT TYPE=HIDDEN NAME=\"__context\" VALUE=\"");
+      send(FORM_CONTEXT);
       print(context);
-      print("\">\r\n");
+      send(TAG_END);
     }
   }
 
 
-  public void sendFormFooter() { print("</FORM>\r\n"); }
+  public void sendFormFooter() { send(FORM_END); }
 
 
   public void sendPageHeader(String what, String msg, String back,
@@ -90,68 +213,53 @@ public final class HTMLStyleWriter extends PrintWriter
     //if(!cache) sendHeader(HD_PRAGMA, "no-cache");
     //endHeader();
 
-    print("<HTML>\r\n<HEAD>\r\n<TITLE>");
+    send(PAGE_START);
     if(leftHeader != null) print(leftHeader);
     print(what);
-    print("</TITLE>\r\n</HEAD>\r\n");
+    send(TITLE_END);
 
     if(style == S_FANCY)
     {
-      print("<BODY BGCOLOR=\"#B2B2B2\" TEXT=\"#000000\" "+
-	    "ALINK=\"#FF0000\" VLINK=\"#551A8B\" "+
-	    "LINK=\"#0000EE\">\r\n"+
-	    "<TABLE CELLPADDING=3 CELLSPACING=0 WIDTH=\"100%\" "+
-	    "BORDER=0><TR>\r\n"+
-	    "<TD BGCOLOR=\"#000000\" ALIGN=LEFT>"+
-	    "<FONT FACE=LUCIDA COLOR=\"#FE9304\"><B><I>");
+      send(FANCY_BODY);
       print(what);
-      print("</I></B></FONT></TD>"+
-	    "<TD BGCOLOR=\"#000000\" ALIGN=RIGHT>"+
-	    "<FONT FACE=HELVETICA COLOR=\"#ffffff\"><B>");
+      send(FANCY_TITLE_RIGHT);
       if(rightHeader != null) print(rightHeader);
-      else print("NetForge");
-      print("</B></FONT></TD></TR></TABLE><P>\r\n");
+      else send(NETFORGE);
+      send(FANCY_TITLE_END);
       if(back != null)
       {
-	print("<FONT FACE=HELVETICA SIZE=-1>Go back to: <B>");
+	send(FANCY_BACK);
 	print(back);
-	print("</B></FONT>\r\n");
+	send(FANCY_BACK_END);
       }
       if(msg != null)
       {
-	print("<P><TABLE CELLPADDING=3 CELLSPACING=0 WIDTH=\"100%\" "+
-	      "BORDER=0><TR>\r\n"+
-	      "<TD BGCOLOR=\"#000000\" ALIGN=LEFT>"+
-	      "<FONT FACE=LUCIDA COLOR=\"#FE9304\"><B><I>");
+	send(FANCY_ERROR);
 	print(msg);
-	print("</I></B></FONT></TD>"+
-	      "<TD BGCOLOR=\"#000000\" ALIGN=RIGHT>"+
-	      "<FONT FACE=HELVETICA COLOR=\"#FFFFFF\"><B>"+
-	      "Error"+
-	      "</B></FONT></TD></TR></TABLE><P>\r\n");
+	send(FANCY_ERROR_END);
       }
-      else if(back != null) print("<HR NOSHADE>\r\n");
-      print("<P>\r\n");
+      else if(back != null) send(FANCY_HR);
+      send(P);
     }
     else
     {
-      if(style == S_TEXTONLY) print("<BODY>\r\n<H1>");
-      else print("<BODY BGCOLOR=\"#B2B2B2\">\r\n<H1>");
+      if(style == S_TEXTONLY) send(TEXT_BODY);
+      else send(STANDARD_BODY);
       if(leftHeader != null) print(leftHeader);
       print(what);
-      print("</H1>\r\n");
+      send(H1_END);
       if(back != null)
       {
-	print("Back to: ");
+	send(BACK);
 	print(back);
       }
       if(msg != null)
       {
-	print("\r\n<HR>\r\n<CENTER><B>Error: ");
+	send(ERROR);
 	print(msg);
-	print(".</B></CENTER>");
+	send(ERROR_END);
       }
-      if(sep) print("\r\n<HR>\r\n<P>\r\n");
+      if(sep) send(SEPARATOR);
     }
   }
 
@@ -160,30 +268,30 @@ public final class HTMLStyleWriter extends PrintWriter
   {
     if(style == S_FANCY)
     {
-      print("<HR NOSHADE>\r\n<ADDRESS>\r\n"+
-	    "<FONT FACE=HELVETICA SIZE=\"-1\"><I>"+
-	    "Created by <B>NetForge/");
+      send(FANCY_FOOTER);
+      send(NETFORGE_SLASH);
       print(srvVer);
-      print("</B> (");
+      send(FANCY_FOOTER_CLASS);
       print(cl.getName());
-      print(") @ <B><A HREF=\"/\">");
+      send(FANCY_FOOTER_HOST);
       print(host);
       if(port != 80)
       {
 	print(':');
 	print(port);
       }
-      print("</A></B></FONT></ADDRESS>\r\n</BODY>\r\n</HTML>\r\n");
+      send(FANCY_FOOTER_END);
     }
     else
     {
-      print("<HR>\r\n<ADDRESS>Created by NetForge/");
+      send(FOOTER);
+      send(NETFORGE_SLASH);
       print(srvVer);
-      print(" (");
+      send(FOOTER_CLASS);
       print(cl.getName());
-      print(") @ <A HREF=\"/\">");
+      send(FOOTER_HOST);
       print(host);
-      print("</A></ADDRESS>\r\n</BODY>\r\n</HTML>\r\n");
+      send(FOOTER_END);
     }
   }
 
@@ -192,21 +300,19 @@ public final class HTMLStyleWriter extends PrintWriter
   {
     if(style == S_FANCY)
     {
-      print("<HR NOSHADE>\r\n<ADDRESS>\r\n"+
-	    "<FONT FACE=HELVETICA SIZE=\"-1\"><I>"+
-	    "Created by <B>");
+      send(FANCY_FOOTER);
       print(appName);
-      print("</B> (");
+      send(FANCY_FOOTER_CLASS);
       print(cl.getName());
-      print(")</FONT></ADDRESS>\r\n</BODY>\r\n</HTML>\r\n");
+      send(FANCY_FOOTER_APP_END);
     }
     else
     {
-      print("<HR>\r\n<ADDRESS>Created by ");
+      send(FOOTER);
       print(appName);
-      print(" (");
+      send(FOOTER_CLASS);
       print(cl.getName());
-      print(")</ADDRESS>\r\n</BODY>\r\n</HTML>\r\n");
+      send(FOOTER_APP_END);
     }
   }
 
@@ -218,32 +324,28 @@ public final class HTMLStyleWriter extends PrintWriter
   {
     if(style == S_FANCY)
     {
-      print("<P><BR><TABLE CELLPADDING=3 CELLSPACING=0 "+
-	    "WIDTH=\"100%\" BORDER=0><TR>\r\n"+
-	    "<TD BGCOLOR=\"#9A9A9A\" ALIGN=LEFT>"+
-	    "<FONT FACE=HELVETICA COLOR=\"#000000\"><B>");
+      send(FANCY_ITEM);
       print(n);
-      print("</B></FONT></TD>");
+      send(FANCY_ITEM_CELL_END);
       if(s != null)
       {
-	print("<TD BGCOLOR=\"#9A9A9A\" ALIGN=RIGHT>"+
-	      "<FONT FACE=HELVETICA COLOR=\"#B2B2B2\"><B>");
+	send(FANCY_ITEM_RIGHT);
 	print(s);
-	print("</B></FONT></TD>");
+	send(FANCY_ITEM_CELL_END);
       }
-      print("</TR></TABLE><P>\r\n");
+      send(FANCY_ITEM_END);
     }
     else
     {
-      print("<H3>");
+      send(H3);
       print(n);
       if(s != null)
       {
-	print(" <I>(");
+	send(H3_SUB);
 	print(s);
-	print(")</I>");
+	send(H3_SUB_END);
       }
-      print("</H3>\r\n");
+      send(H3_END);
     }
   }
 
@@ -254,15 +356,15 @@ public final class HTMLStyleWriter extends PrintWriter
 
     if(style == S_FANCY)
     {
-      print("<FONT FACE=HELVETICA SIZE=-1><I>");
+      send(FANCY_SMALL_I);
       print(d);
-      print("</I><P></FONT>\r\n");
+      send(FANCY_SMALL_I_END);
     }
     else
     {
-      print("<I>");
+      send(I);
       print(d);
-      print("</I><BR>\r\n");
+      send(I_BR_END);
     }
   }
 
@@ -273,74 +375,55 @@ public final class HTMLStyleWriter extends PrintWriter
 
     if(style == S_FANCY)
     {
-      print("<FONT FACE=HELVETICA SIZE=-1>");
+      send(FANCY_SMALL);
       print(d);
-      print("<P></FONT>\r\n");
+      send(FANCY_SMALL_END);
     }
     else
     {
       print(d);
-      print("<P>\r\n");
+      send(P);
     }
   }
 
 
   public void startTextPage()
   {
-    if(style == S_FANCY)
-      print("<CENTER><TABLE BORDER=0 WIDTH=\"90%\" CELLPADDING=0 "+
-	    "CELLSPACING=0><TR><TD><FONT FACE=HELVETICA SIZE=-1><BR>");
+    if(style == S_FANCY) send(FANCY_TEXT_PAGE);
   }
 
 
   public void endTextPage()
   {
-    if(style == S_FANCY)
-      print("</FONT></TD></TR></TABLE></CENTER><P>\r\n");
-    else print("<P>\r\n");
+    if(style == S_FANCY) send(FANCY_TEXT_PAGE_END);
+    else send(P);
   }
 
 
   public void sendHR()
   {
-    if(style == S_FANCY) print("<HR NOSHADE>\r\n");
-    else print("<HR>\r\n");
+    if(style == S_FANCY) send(FANCY_HR);
+    else send(HR);
   }
 
 
-  public void startButtonArea()
-  {
-    print("<TABLE CELLPADDING=0 CELLSPACING=0 BORDER=0 WIDTH=\"100%\">"+
-	  "<TR><TD ALIGN=LEFT>");
-  }
+  public void startButtonArea() { send(BUTTON_AREA); }
 
 
-  public void separateButtonArea() { print("</TD><TD ALIGN=RIGHT>"); }
+  public void separateButtonArea() { send(BUTTON_AREA_SEP); }
 
 
-  public void endButtonArea() { print("</TD></TR></TABLE>"); }
+  public void endButtonArea() { send(BUTTON_AREA_END); }
 
 
   public void sendButton(String name, String title)
   {
-    if(style == S_FANCY)
-    {
-      print("<FONT FACE=LUCIDA SIZE=-1><I><INPUT TYPE=SUBMIT NAME=\"");
-      if(name != null) print(name);
-      print("__button\" VALUE=\"  ");
-      //print(LiteralEncoder.encode(title));
-      print(title);
-      print("  \"></I></FONT>\r\n");
-    }
-    else
-    {
-      print("<INPUT TYPE=SUBMIT NAME=\"");
-      if(name != null) print(name);
-      print("__button\" VALUE=\"  ");
-      //print(LiteralEncoder.encode(title));
-      print(title);
-      print("  \">\r\n");
-    }
+    send(style == S_FANCY ? FANCY_BUTTON : BUTTON);
+    if(name != null) print(name);
+    send(BUTTON_VALUE);
+    //print(LiteralEncoder.encode(title));
+    print(title);
+    send(style == S_FANCY ? FANCY_BUTTON_END : BUTTON_END);
   }
 
 
@@ -349,36 +432,190 @@ public final class HTMLStyleWriter extends PrintWriter
 
   public void sendResetButton()
   {
-    if(style == S_FANCY)
-      print("<FONT FACE=LUCIDA SIZE=-1><I><INPUT TYPE=RESET VALUE=\"  Reset "+
-	    "form  \"></I></FONT>\r\n");
-    else print("<INPUT TYPE=RESET VALUE=\"  Reset form  \">\r\n");
+    if(style == S_FANCY) send(FANCY_RESET);
+    else send(RESET);
   }
 
 
   public void startList()
   {
-    if(style == S_FANCY) print("<UL><FONT FACE=HELVETICA SIZE=-1>\r\n");
-    else print("<UL>\r\n");
+    if(style == S_FANCY) send(FANCY_LIST);
+    else send(LIST);
   }
 
   public void endList()
   {
-    if(style == S_FANCY) print("</FONT></UL>\r\n");
-    else print("</UL>\r\n");
+    if(style == S_FANCY) send(FANCY_LIST_END);
+    else send(LIST_END);
   }
 
   public void sendListItem(String s) { sendListItem(s, null); }
 
   public void sendListItem(String s, String d)
   {
-    print("<P><LI>");
+    send(LIST_ITEM);
     print(s);
     if(d != null)
     {
-      print("<BR>");
+      send(BR);
       print(d);
     }
-    print("\r\n");
+    send(CRLF);
+  }
+
+
+  /* Writes a fixed piece of markup, as bytes if possible. */
+
+  private void send(Markup m)
+  {
+    if(bytes == null)
+    {
+      write(m.chars, 0, m.chars.length);
+      return;
+    }
+    synchronized(lock)
+    {
+      if(out == null) setError();
+      else
+      {
+        try { bytes.writeBytes(m.bytes); }
+        catch(InterruptedIOException e) { Thread.currentThread().interrupt(); }
+        catch(IOException e) { setError(); }
+      }
+    }
+  }
+
+
+  /* A piece of markup with its characters and its ASCII bytes. */
+
+  private static final class Markup
+  {
+    final char[] chars;
+    final byte[] bytes;
+
+    Markup(String s)
+    {
+      chars = s.toCharArray();
+      bytes = new byte[chars.length];
+      s.getBytes(0, chars.length, bytes, 0);
+    }
+  }
+
+
+  /* Encodes text with the default encoding into a byte buffer, into
+   * which pre-encoded markup can be copied directly. */
+
+  private static final class ByteOutput extends Writer
+  {
+    private final OutputStream os;
+    private final CharsetEncoder enc;
+    private final ByteBuffer buf = ByteBuffer.allocate(8192);
+    private final char[] one = new char[1];
+    private char high;
+    final boolean asciiCompatible;
+
+    ByteOutput(OutputStream os)
+    {
+      this.os = os;
+      Charset cs = Charset.defaultCharset();
+      enc = cs.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      String test = "<A HREF=\"/\">\r\n";
+      byte[] b = new byte[test.length()];
+      test.getBytes(0, b.length, b, 0);
+      ByteBuffer e = cs.encode(test);
+      asciiCompatible = e.equals(ByteBuffer.wrap(b));
+    }
+
+    public void write(int c) throws IOException
+    {
+      one[0] = (char)c;
+      encode(CharBuffer.wrap(one));
+    }
+
+    public void write(char[] c, int off, int len) throws IOException
+    {
+      encode(CharBuffer.wrap(c, off, len));
+    }
+
+    public void write(String s, int off, int len) throws IOException
+    {
+      encode(CharBuffer.wrap(s, off, off+len));
+    }
+
+    void writeBytes(byte[] b) throws IOException
+    {
+      if(high != 0)
+      {
+        // A lone high surrogate before the markup
+        one[0] = '?';
+        high = 0;
+        encode(CharBuffer.wrap(one));
+      }
+      endState();
+      if(b.length > buf.remaining())
+      {
+        drain();
+        if(b.length > buf.capacity())
+        {
+          os.write(b);
+          return;
+        }
+      }
+      buf.put(b);
+    }
+
+    private void encode(CharBuffer cb) throws IOException
+    {
+      if(high != 0 && cb.hasRemaining())
+      {
+        CharBuffer pair = CharBuffer.wrap(new char[] { high, cb.get() });
+        high = 0;
+        encode0(pair);
+      }
+      encode0(cb);
+      if(cb.remaining() == 1 && Character.isHighSurrogate(cb.get(cb.position())))
+        high = cb.get();
+    }
+
+    private void encode0(CharBuffer cb) throws IOException
+    {
+      while(enc.encode(cb, buf, false).isOverflow()) drain();
+    }
+
+    /* Returns a stateful encoder (e.g. ISO-2022-JP) to its initial state,
+     * so that ASCII bytes can follow. This is a no-op for other charsets. */
+    private void endState() throws IOException
+    {
+      CharBuffer empty = CharBuffer.wrap(one, 0, 0);
+      while(enc.encode(empty, buf, true).isOverflow()) drain();
+      while(enc.flush(buf).isOverflow()) drain();
+      enc.reset();
+    }
+
+    private void drain() throws IOException
+    {
+      os.write(buf.array(), 0, buf.position());
+      buf.clear();
+    }
+
+    public void flush() throws IOException
+    {
+      drain();
+      os.flush();
+    }
+
+    public void close() throws IOException
+    {
+      if(high != 0)
+      {
+        one[0] = '?';
+        high = 0;
+        encode(CharBuffer.wrap(one));
+      }
+      endState();
+      drain();
+      os.close();
+    }
   }
 }
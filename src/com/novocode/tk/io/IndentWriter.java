@@ -36,6 +36,9 @@ import java.io.*;
 
 public final class IndentWriter extends FilterWriter
 {
+  private static final char[] SPACES = new char[64];
+  static { java.util.Arrays.fill(SPACES, ' '); }
+
   private int level, increase;
   private boolean isFirstChar = true;
 
@@ -65,7 +68,7 @@ public final class IndentWriter extends FilterWriter
   {
     if(isFirstChar)
     {
-      for(int i=level*increase; i>0; i--) out.write(' ');
+      indent();
       isFirstChar = false;
     }
     super.write(c);
@@ -75,12 +78,60 @@ public final class IndentWriter extends FilterWriter
 
   public void write(char cbuf[], int off, int len) throws IOException
   {
-    for(int i=off; i<off+len; i++) write(cbuf[i]);
+    int end = off+len;
+    while(off < end)
+    {
+      if(isFirstChar)
+      {
+        indent();
+        isFirstChar = false;
+      }
+      int i = off;
+      while(i < end && cbuf[i] != '\n') i++;
+      if(i < end)
+      {
+        out.write(cbuf, off, i+1-off);
+        isFirstChar = true;
+        off = i+1;
+      }
+      else
+      {
+        out.write(cbuf, off, end-off);
+        off = end;
+      }
+    }
   }
 
 
   public void write(String str, int off, int len) throws IOException
   {
-    for(int i=off; i<off+len; i++) write(str.charAt(i));
+    int end = off+len;
+    while(off < end)
+    {
+      if(isFirstChar)
+      {
+        indent();
+        isFirstChar = false;
+      }
+      int i = str.indexOf('\n', off);
+      if(i >= 0 && i < end)
+      {
+        out.write(str, off, i+1-off);
+        isFirstChar = true;
+        off = i+1;
+      }
+      else
+      {
+        out.write(str, off, end-off);
+        off = end;
+      }
+    }
+  }
+
+
+  private void indent() throws IOException
+  {
+    for(int n=level*increase; n>0; n-=SPACES.length)
+      out.write(SPACES, 0, n < SPACES.length ? n : SPACES.length);
   }
 }
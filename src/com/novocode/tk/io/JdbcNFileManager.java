@@ -20,7 +20,7 @@
 
 package com.novocode.tk.io;
 
-// classes JdbcNFileManager, JdbcNFile, JdbcNFileOutputStream
+// classes JdbcNFileManager, JdbcNFile, JdbcNFileListing, JdbcNFileOutputStream
 
 import java.io.*;
 import java.util.*;
@@ -41,9 +41,17 @@ import java.sql.*;
 
 public class JdbcNFileManager
 {
+  /**
+   * The default number of rows which are fetched at a time by
+   * <EM>NFile.listing()</EM>.
+   */
+
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
   String url, user, password, table;
   Connection con;
   Statement stmt;
+  volatile int fetchSize = DEFAULT_FETCH_SIZE;
 
 
   /**
@@ -108,6 +116,34 @@ public class JdbcNFileManager
   {
     return new JdbcNFile(this, resource);
   }
+
+
+  /**
+   * Set the number of rows which are fetched at a time by the cursors
+   * which are used by <EM>NFile.listing()</EM>. Whether the hint is
+   * honored depends on the JDBC driver (e.g. MySQL Connector/J requires
+   * the connection property <CODE>useCursorFetch=true</CODE>).
+   *
+   * @param n the number of rows or 0 to use the driver's default.
+   * @exception IllegalArgumentException if n is negative.
+   */
+
+  public void setFetchSize(int n)
+  {
+    if(n < 0) throw new IllegalArgumentException("Illegal fetch size "+n);
+    fetchSize = n;
+  }
+
+
+  /**
+   * Return the number of rows which are fetched at a time by
+   * <EM>NFile.listing()</EM>.
+   */
+
+  public int getFetchSize()
+  {
+    return fetchSize;
+  }
 }
 
 
@@ -287,6 +323,98 @@ class JdbcNFile extends NFile
   }
 
 
+  /**
+   * List the contents of this resource one name at a time. The names are
+   * read from a separate cursor which fetches the number of rows set with
+   * <EM>JdbcNFileManager.setFetchSize()</EM> at a time.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileListing listing(FilenameFilter filter) throws NFileException
+  {
+    if(!isListable()) return null;
+    try
+    {
+      synchronized(man.con)
+      {
+	Statement st = man.con.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+					       ResultSet.CONCUR_READ_ONLY);
+	try
+	{
+	  st.setFetchSize(man.fetchSize);
+	  ResultSet rs = st.executeQuery("SELECT name FROM "+man.table+
+					 " WHERE parent=\""+canonPath+"\"");
+	  return new JdbcNFileListing(man, st, rs, filter);
+	}
+	catch(SQLException e)
+	{
+	  st.close();
+	  throw e;
+	}
+      }
+    }
+    catch(SQLException e) { throw NFileException.getCascadeException(e); }
+  }
+
+
+  /**
+   * List the contents of this resource together with their attributes
+   * and meta values in a single query. An additional query is only made
+   * to check whether a resource without children is listable.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileAttributes[] listAttributes(String[] metaNames)
+    throws NFileException
+  {
+    StringBuffer q =
+      new StringBuffer("SELECT name,isnull(body),length(body),mtime");
+    if(metaNames != null)
+      for(int i=0; i<metaNames.length; i++)
+	q.append(',').append(metaNames[i].toLowerCase().replace('-','_'));
+    q.append(" FROM ").append(man.table).append(" WHERE parent=\"")
+      .append(canonPath).append('"');
+    Vector v = new Vector();
+    try
+    {
+      synchronized(man.con)
+      {
+	ResultSet rs = null;
+	try
+	{
+	  rs = man.stmt.executeQuery(q.toString());
+	  while(rs.next())
+	  {
+	    String n = rs.getString(1);
+	    n = n.substring(n.lastIndexOf('/') + 1);
+	    boolean dir = rs.getInt(2) != 0;
+	    Hashtable meta = null;
+	    if(metaNames != null)
+	    {
+	      meta = new Hashtable();
+	      for(int i=0; i<metaNames.length; i++)
+	      {
+		String val = rs.getString(5+i);
+		if(val != null) meta.put(metaNames[i].toLowerCase(), val);
+	      }
+	    }
+	    v.addElement(new NFileAttributes(n, true, !dir, dir, rs.getLong(3),
+					     rs.getLong(4), meta));
+	  }
+	}
+	finally { if(rs != null) rs.close(); }
+      }
+    }
+    catch(SQLException e) { throw NFileException.getCascadeException(e); }
+    if(v.size() == 0 && !isListable()) return null;
+    NFileAttributes[] res = new NFileAttributes[v.size()];
+    v.copyInto(res);
+    return res;
+  }
+
+
   public long length() throws NFileException
   {
     try
@@ -416,6 +544,53 @@ class JdbcNFile extends NFile
   }
 
 
+  /**
+   * Get an InputStream to read a range of the content. Only the
+   * requested part of the body is retrieved from the database.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public InputStream getInputStream(long offset, long length)
+    throws NFileException
+  {
+    checkRange(offset, length);
+    String sub = (length < 0) ? "SUBSTRING(body,"+(offset+1)+")" :
+      "SUBSTRING(body,"+(offset+1)+","+length+")";
+    try
+    {
+      synchronized(man.con)
+      {
+	boolean close = true;
+	ResultSet rs = null;
+	try
+	{
+	  rs = man.stmt.executeQuery("SELECT "+sub+" FROM "+man.table+
+				     " WHERE name=\""+canonPath+"\"");
+	  if(!rs.next()) throw new NFileNotFoundException();
+	  InputStream in = rs.getBinaryStream(1);
+	  if(in != null) close = false;
+	  else
+	  {
+	    byte[] b = rs.getBytes(1);
+	    if(b == null)
+	      throw new NFileException("Couldn't get InputStream");
+	    in = new ByteArrayInputStream(b);
+	  }
+	  return in;
+	}
+	finally { if(close && rs != null) rs.close(); }
+      }
+    }
+    catch(SQLException e) { throw NFileException.getCascadeException(e); }
+  }
+
+
+  /* The InputStream keeps the ResultSet of the shared Statement open. */
+
+  boolean allowsConcurrentReads() { return false; }
+
+
   public OutputStream getOutputStream() throws NFileException
   {
     if(!getParent().exists())
@@ -470,11 +645,62 @@ class JdbcNFile extends NFile
 }
 
 
-class JdbcNFileOutputStream extends ByteArrayOutputStream
+class JdbcNFileListing extends NFileListing
+{
+  private JdbcNFileManager man;
+  private Statement st;
+  private ResultSet rs;
+
+
+  JdbcNFileListing(JdbcNFileManager man, Statement st, ResultSet rs,
+		   FilenameFilter filter)
+  {
+    super(filter, null);
+    this.man = man;
+    this.st = st;
+    this.rs = rs;
+  }
+
+
+  protected String fetch() throws NFileException
+  {
+    try
+    {
+      synchronized(man.con)
+      {
+	if(!rs.next()) return null;
+	String n = rs.getString(1);
+	return n.substring(n.lastIndexOf('/') + 1);
+      }
+    }
+    catch(SQLException e) { throw NFileException.getCascadeException(e); }
+  }
+
+
+  protected void release() throws NFileException
+  {
+    try
+    {
+      synchronized(man.con)
+      {
+	try { rs.close(); }
+	finally { st.close(); }
+      }
+    }
+    catch(SQLException e) { throw NFileException.getCascadeException(e); }
+  }
+}
+
+
+class JdbcNFileOutputStream extends OutputStream
 {
+  private static final long SPILL_THRESHOLD = 4*1024*1024;
+
   private String canonPath, parentPath;
   private JdbcNFileManager man;
   private JdbcNFile nfile;
+  private SegmentedBufferOutputStream data = new SegmentedBufferOutputStream();
+  private boolean closed;
 
 
   JdbcNFileOutputStream(String canonPath, String parentPath,
@@ -484,12 +710,31 @@ class JdbcNFileOutputStream extends ByteArrayOutputStream
     this.parentPath = parentPath;
     this.man = man;
     this.nfile = nfile;
+    data.setSpillThreshold(SPILL_THRESHOLD);
+  }
+
+
+  public void write(int b) throws IOException { data.write(b); }
+
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    data.write(b, off, len);
   }
 
 
   public void close() throws IOException
   {
+    if(closed) return;
+    closed = true;
     flush();
+    long size = data.size();
+    if(size > Integer.MAX_VALUE)
+    {
+      data.reset();
+      throw new NFileException("File \""+canonPath+"\" is too large ("+
+			       size+" bytes)");
+    }
 
     try
     {
@@ -536,23 +781,27 @@ class JdbcNFileOutputStream extends ByteArrayOutputStream
 	}
 	if(pstmt != null)
 	{
-	  pstmt.setBinaryStream(1, new ByteArrayInputStream(buf,0,count),
-				count);
-	  pstmt.executeUpdate();
+	  InputStream in = data.getInputStream();
+	  try
+	  {
+	    pstmt.setBinaryStream(1, in, (int)size);
+	    pstmt.executeUpdate();
+	  }
+	  finally { in.close(); }
 	  pstmt.close();
 	}
       }
     }
     catch(SQLException e) { throw NFileException.getCascadeException(e); }
-
-    super.close();
+    finally { data.reset(); }
   }
 
 
-  private String getData()
+  private String getData() throws IOException
   {
-    StringBuffer b = new StringBuffer(count + 16);
-    for(int i=0; i<count; i++)
+    byte[] buf = data.toByteArray();
+    StringBuffer b = new StringBuffer(buf.length + 16);
+    for(int i=0; i<buf.length; i++)
     {
       char c = (char)(buf[i] & 0xFF);
       switch(c)
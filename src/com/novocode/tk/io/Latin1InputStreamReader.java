@@ -27,7 +27,13 @@ import java.io.InputStream;
 
 /**
  * An optimized InputStreamReader which reads text with ASCII / ISO-8859-1
- * encoding from an InputStream. The reader is <EM>not</EM> buffered.
+ * encoding from an InputStream. A reader which is created with a buffer
+ * size reads blocks of bytes into the buffer and converts them to
+ * characters in one loop, so it may read ahead in the InputStream. The
+ * reader is unbuffered by default, so the InputStream can be read
+ * directly after reading some lines with the reader. The reader is not
+ * synchronized, so it should not be used by several threads at the same
+ * time.
  *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Intermediate. Fully documented.
@@ -38,37 +44,101 @@ import java.io.InputStream;
 
 public final class Latin1InputStreamReader extends Reader
 {
+  /** The default buffer size of 8 KB. */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
   private char[] charbuf;
   private byte[] bytebuf;
+  private byte[] buf;
+  private int pos, end;
   private InputStream in;
 
 
+  /**
+   * Creates a new unbuffered Latin1InputStreamReader which never reads
+   * more bytes from the InputStream than it returns.
+   *
+   * @param in an InputStream.
+   */
+
   public Latin1InputStreamReader(InputStream in)
+  {
+    this(in, 0);
+  }
+
+
+  /**
+   * Creates a new Latin1InputStreamReader.
+   *
+   * @param in an InputStream.
+   * @param bufferSize the size of the buffer (e.g. DEFAULT_BUFFER_SIZE)
+   *                   or 0 for an unbuffered reader which never reads
+   *                   more bytes from the InputStream than it returns.
+   */
+
+  public Latin1InputStreamReader(InputStream in, int bufferSize)
   {
     super(in);
     this.in = in;
+    if(bufferSize > 0) buf = new byte[bufferSize];
   }
 
 
   public int read() throws IOException
   {
-    return in.read();
+    if(buf == null) return in.read();
+    if(pos == end && !fill()) return -1;
+    return buf[pos++] & 0xFF;
   }
 
 
   public int read(char cbuf[], int off, int len) throws IOException
   {
-    if(bytebuf == null || bytebuf.length < len) bytebuf = new byte[len];
-    int num = in.read(bytebuf, 0, len);
-    int i=0, j=off;
-    while(i<num) cbuf[j++] = (char)(bytebuf[i++]&0xFF);
+    if(len == 0) return 0;
+    byte[] b;
+    int p, num;
+    if(buf == null)
+    {
+      if(bytebuf == null ||
+         (bytebuf.length < len && bytebuf.length < DEFAULT_BUFFER_SIZE))
+        bytebuf =
+          new byte[len < DEFAULT_BUFFER_SIZE ? len : DEFAULT_BUFFER_SIZE];
+      b = bytebuf;
+      p = 0;
+      num = in.read(b, 0, len < b.length ? len : b.length);
+      if(num <= 0) return -1;
+    }
+    else
+    {
+      if(pos == end && !fill()) return -1;
+      b = buf;
+      p = pos;
+      num = end-pos;
+      if(num > len) num = len;
+      pos += num;
+    }
+    for(int i=p, j=off, e=p+num; i<e; i++, j++) cbuf[j] = (char)(b[i] & 0xFF);
     return num;
   }
 
 
   public long skip(long n) throws IOException
   {
-    return in.skip(n);
+    if(n <= 0) return 0;
+    int avail = end-pos;
+    if(avail >= n)
+    {
+      pos += (int)n;
+      return n;
+    }
+    pos = end;
+    return avail + in.skip(n-avail);
+  }
+
+
+  public boolean ready() throws IOException
+  {
+    return pos < end || in.available() > 0;
   }
 
 
@@ -77,6 +147,7 @@ public final class Latin1InputStreamReader extends Reader
     in.close();
     charbuf = null;
     bytebuf = null;
+    pos = end = 0;
   }
 
 
@@ -89,27 +160,62 @@ public final class Latin1InputStreamReader extends Reader
   public String readLine() throws IOException
   {
     int length = 0;
-    int c;
 
-    synchronized(in)
+    if(charbuf == null) charbuf = new char[128];
+    if(buf == null)
     {
-      if(charbuf == null) charbuf = new char[128];
+      int c;
       while((c = in.read()) != -1)
       {
 	if(c == '\n') return String.copyValueOf(charbuf, 0, length);
 	else if(c != '\r')
 	{
-	  if(length == charbuf.length)
-	  {
-	    char[] newbuf = new char[length * 2];
-	    System.arraycopy(charbuf, 0, newbuf, 0, length);
-	    charbuf = newbuf;
-	  }
+	  if(length == charbuf.length) grow(length+1);
 	  charbuf[length++] = (char) c;
 	}
       }
-      if(length == 0) return null;
-      else return String.copyValueOf(charbuf, 0, length);
     }
+    else
+    {
+      while(pos < end || fill())
+      {
+        byte[] b = buf;
+        int i = pos, e = end;
+        while(i < e && b[i] != '\n') i++;
+        if(length+(i-pos) > charbuf.length) grow(length+(i-pos));
+        char[] cb = charbuf;
+        for(int j=pos; j<i; j++)
+        {
+          byte c = b[j];
+          if(c != '\r') cb[length++] = (char)(c & 0xFF);
+        }
+        if(i < e)
+        {
+          pos = i+1;
+          return String.copyValueOf(cb, 0, length);
+        }
+        pos = i;
+      }
+    }
+    if(length == 0) return null;
+    else return String.copyValueOf(charbuf, 0, length);
+  }
+
+
+  private void grow(int min)
+  {
+    int l = charbuf.length * 2;
+    char[] newbuf = new char[l > min ? l : min];
+    System.arraycopy(charbuf, 0, newbuf, 0, charbuf.length);
+    charbuf = newbuf;
+  }
+
+
+  private boolean fill() throws IOException
+  {
+    pos = 0;
+    int n = in.read(buf, 0, buf.length);
+    end = n > 0 ? n : 0;
+    return n > 0;
   }
 }
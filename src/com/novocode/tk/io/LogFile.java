@@ -21,7 +21,22 @@
 package com.novocode.tk.io;
 
 import java.io.RandomAccessFile;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Vector;
+import java.util.zip.GZIPOutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
@@ -30,19 +45,95 @@ import java.io.IOException;
  * If the old file was opened for writing it is automatically closed. The new
  * file is not opened until a message is to be logged.
  *
+ * <p>In asynchronous mode (see <code>setAsync()</code>) the logging
+ * threads only put their lines into a lock-free queue. A background
+ * thread collects the queued lines and writes them with a single write
+ * operation when the batch size is reached or the flush interval has
+ * passed. If the queue is full, new lines are dropped and counted
+ * instead of blocking the logging thread.
+ *
+ * <p>A LogFile can be rotated when it reaches a maximum size and at the
+ * beginning of every day or hour. The current file is then renamed to a
+ * segment file whose name consists of the file name, a dot and the date
+ * (plus an increasing counter if there are several segments with the
+ * same date), e.g.
+ * <code>server.log.2003-01-31</code>, and a new file is started. The
+ * switch happens while the LogFile is locked, so no lines are lost.
+ * Segments can be compressed with gzip and old segments can be deleted
+ * automatically. Both is done by a background thread.
+ *
+ * <p>Instead of lines of text, binary LogRecords with typed fields can
+ * be written to a LogFile. They can be read efficiently with a
+ * LogRecordReader.
+ *
+ * <p>In mapped mode (see <code>setMapped()</code>) the file is extended by
+ * regions of a fixed size which are mapped into memory, and lines are
+ * appended by copying them into the mapped region. The file is truncated
+ * to the length of the data when it is closed or rotated. Until then,
+ * other processes see the unused rest of the region as zero bytes. When
+ * a file which was not closed properly is opened in mapped mode,
+ * trailing zero bytes are removed.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fully documented.
  * </dl>
  *
  * @author Stefan Zeiger
+ * @see com.novocode.tk.io.LogRecord
  */
 
 public final class LogFile
 {
+  /** The default capacity of the queue in asynchronous mode (65536 lines). */
+  public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+
+  /** The default batch size in asynchronous mode (64 KB). */
+  public static final int DEFAULT_BATCH_SIZE = 65536;
+
+  /** The default flush interval in asynchronous mode (200 ms). */
+  public static final long DEFAULT_FLUSH_INTERVAL = 200;
+
+  /** Rotation period: Rotate by size only. */
+  public static final int ROTATE_NEVER = 0;
+
+  /** Rotation period: Rotate at the beginning of every hour. */
+  public static final int ROTATE_HOURLY = 1;
+
+  /** Rotation period: Rotate at the beginning of every day. */
+  public static final int ROTATE_DAILY = 2;
+
   private RandomAccessFile raf;
   private String name, openedName;
   private boolean changed;
 
+  private volatile boolean async;
+  private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+  private volatile long syncInterval = -1;
+  private final ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile Writer writer;
+  private volatile IOException error;
+  private byte[] batch;
+  private boolean unsynced;
+  private long lastSync;
+
+  private int rotation = ROTATE_NEVER;
+  private long maxSize, maxAge;
+  private int maxSegments;
+  private boolean compress;
+  private long size, periodEnd = Long.MAX_VALUE;
+  private Archiver archiver;
+  private String segBase;
+  private int segIndex;
+
+  private int mapRegion;
+  private MappedByteBuffer map;
+  private long mapEnd;
+
   private static String eol = System.getProperty("line.separator");
 
 
@@ -82,18 +173,212 @@ public final class LogFile
   }
 
 
+  /**
+   * Switches between synchronous and asynchronous mode. When
+   * asynchronous mode is switched off, the lines which are still queued
+   * are written before this method returns.
+   *
+   * @param b true for asynchronous mode, false for synchronous mode.
+   *          The default setting is "false".
+   */
+
+  public void setAsync(boolean b)
+  {
+    async = b;
+    if(!b) stopWriter();
+  }
+
+
+  /**
+   * Sets the maximum number of lines which can be queued in asynchronous
+   * mode. Lines which are logged while the queue is full are dropped.
+   *
+   * @param lines the capacity of the queue. The default is
+   *              DEFAULT_QUEUE_CAPACITY.
+   * @see #getDroppedLines
+   */
+
+  public void setQueueCapacity(int lines) { queueCapacity = lines; }
+
+
+  /**
+   * Sets the number of bytes after which the queued lines are written
+   * in asynchronous mode without waiting for the flush interval.
+   *
+   * @param bytes the batch size. The default is DEFAULT_BATCH_SIZE.
+   */
+
+  public void setBatchSize(int bytes) { batchSize = bytes; }
+
+
+  /**
+   * Sets the maximum time for which lines are queued in asynchronous
+   * mode before they are written.
+   *
+   * @param millis the flush interval in milliseconds. The default is
+   *               DEFAULT_FLUSH_INTERVAL.
+   * @exception IllegalArgumentException if millis is less than 1.
+   */
+
+  public void setFlushInterval(long millis)
+  {
+    if(millis < 1)
+      throw new IllegalArgumentException("Illegal flush interval "+millis);
+    flushInterval = millis;
+  }
+
+
+  /**
+   * Sets how often written data is forced to the storage device.
+   *
+   * @param millis -1 to leave this to the operating system, 0 to force
+   *               the data after every write (or every batch in
+   *               asynchronous mode), or the minimum time in milliseconds
+   *               between two forced writes. The default is -1.
+   */
+
+  public void setSyncInterval(long millis) { syncInterval = millis; }
+
+
+  /**
+   * Sets the period after which the file is rotated.
+   *
+   * @param period ROTATE_NEVER, ROTATE_HOURLY or ROTATE_DAILY. The
+   *               default is ROTATE_NEVER.
+   * @exception IllegalArgumentException if the period is not valid.
+   */
+
+  public synchronized void setRotation(int period)
+  {
+    if(period < ROTATE_NEVER || period > ROTATE_DAILY)
+      throw new IllegalArgumentException("Illegal rotation period "+period);
+    rotation = period;
+    if(raf != null) periodEnd = periodEnd(new File(openedName));
+  }
+
+
+  /**
+   * Sets the size at which the file is rotated. A line which would make
+   * the file grow beyond this size is written to a new file.
+   *
+   * @param bytes the maximum size or 0 for no limit. The default is 0.
+   */
+
+  public synchronized void setMaxSize(long bytes) { maxSize = bytes; }
+
+
+  /**
+   * Compress rotated segments with gzip? Compressed segments get the
+   * extension ".gz".
+   *
+   * @param b true if the segments should be compressed, otherwise false.
+   *          The default setting is "false".
+   */
+
+  public synchronized void setCompress(boolean b) { compress = b; }
+
+
+  /**
+   * Sets the maximum number of rotated segments to keep. When a file has
+   * been rotated, the oldest segments beyond this number are deleted.
+   *
+   * @param count the number of segments or 0 to keep all segments.
+   *              The default is 0.
+   */
+
+  public synchronized void setMaxSegments(int count) { maxSegments = count; }
+
+
+  /**
+   * Sets the maximum age of rotated segments. When a file has been
+   * rotated, all segments which were last modified before that age are
+   * deleted.
+   *
+   * @param millis the age in milliseconds or 0 to keep all segments.
+   *               The default is 0.
+   */
+
+  public synchronized void setMaxAge(long millis) { maxAge = millis; }
+
+
+  /**
+   * Switches to mapped mode. The file is closed and reopened in the new
+   * mode when the next line is written.
+   *
+   * @param regionSize the size of the regions which are mapped into
+   *                   memory (e.g. 64 MB), or 0 to write through the
+   *                   RandomAccessFile. The default is 0.
+   * @exception IllegalArgumentException if regionSize is negative.
+   */
+
+  public synchronized void setMapped(int regionSize)
+  {
+    if(regionSize < 0)
+      throw new IllegalArgumentException("Illegal region size "+regionSize);
+    drain();
+    close0();
+    mapRegion = regionSize;
+  }
+
+
+  /**
+   * Rotates the file now (after writing the queued lines in asynchronous
+   * mode). Nothing happens if the file is empty.
+   *
+   * @exception java.io.IOException if the file could not be renamed.
+   */
+
+  public synchronized void rotate() throws IOException
+  {
+    drain();
+    if(checkRaf() && size > 0) roll();
+  }
+
+
+  /**
+   * Returns the number of lines which are waiting in the queue in
+   * asynchronous mode.
+   *
+   * @return the number of lines.
+   */
+
+  public int getQueueDepth() { return depth.get(); }
+
+
+  /**
+   * Returns the number of lines which were dropped in asynchronous mode
+   * because the queue was full or the lines could not be written.
+   *
+   * @return the number of lines.
+   */
+
+  public long getDroppedLines() { return dropped.get(); }
+
+
+  /**
+   * Writes all queued lines (in asynchronous mode) and forces the data to
+   * the storage device unless the sync interval is -1.
+   */
+
+  public synchronized void flush()
+  {
+    drain();
+    if(syncInterval >= 0) sync();
+  }
+
+
   /**
    * Close the underlying file.
    * If no file was opened this method does nothing.
+   * In asynchronous mode the queued lines are written first and the
+   * background thread is stopped. It is started again when the next
+   * line is logged.
    */
 
-  public synchronized void close()
+  public void close()
   {
-    if(raf != null)
-    {
-      try { raf.close(); } catch(IOException ignored) {}
-      raf = null;
-    }
+    stopWriter();
+    synchronized(this) { close0(); }
   }
 
 
@@ -102,16 +387,70 @@ public final class LogFile
    * The specified text, followed by the host system's line separator, is
    * written to the underlying file.
    *
+   * <p>In asynchronous mode the line is only queued. An IOException
+   * which occured while writing queued lines in the background is thrown
+   * by the next call to this method.
+   *
    * @param data a line of text (without trailing line separator).
    * @exception java.io.IOException if the message could not be written.
    */
 
-  public synchronized void println(String data) throws IOException
+  public void println(String data) throws IOException
   {
-    if(!checkRaf())
-      throw new IOException("There's no underlying file to write to.");
-    raf.writeBytes(data);
-    raf.writeBytes(eol);
+    int l = data.length(), el = eol.length();
+    byte[] b = new byte[l+el];
+    data.getBytes(0, l, b, 0);
+    eol.getBytes(0, el, b, l);
+    append(b);
+  }
+
+
+  /**
+   * Write a binary record to the file. Records and lines of text should
+   * not be mixed in one file because a LogRecordReader cannot skip lines
+   * of text.
+   *
+   * @param record a LogRecord.
+   * @exception java.io.IOException if the record could not be written.
+   * @see #println
+   * @see com.novocode.tk.io.LogRecordReader
+   */
+
+  public void write(LogRecord record) throws IOException
+  {
+    append(record.toFrame());
+  }
+
+
+  private void append(byte[] b) throws IOException
+  {
+    if(async)
+    {
+      IOException e = error;
+      if(e != null)
+      {
+        error = null;
+        throw e;
+      }
+      if(depth.incrementAndGet() > queueCapacity)
+      {
+        depth.decrementAndGet();
+        dropped.incrementAndGet();
+        return;
+      }
+      queue.add(b);
+      Writer w = writer;
+      if(w == null) w = startWriter();
+      if(pending.addAndGet(b.length) >= batchSize) LockSupport.unpark(w);
+    }
+    else synchronized(this)
+    {
+      try { write(b, b.length); }
+      catch(RolloverException e) { throw e.failure; }
+      if(syncInterval == 0 ||
+         (syncInterval > 0 && System.currentTimeMillis()-lastSync >= syncInterval))
+        sync();
+    }
   }
 
 
@@ -139,16 +478,19 @@ public final class LogFile
     {
       if((raf == null) || (!(name.equals(openedName))))
       {
-	close();
+	close0();
 	if(name != null)
 	{
 	  try
 	  {
 	    raf = new RandomAccessFile(name, "rw");
 	    openedName = name;
-	    raf.seek(raf.length());
+	    size = raf.length();
+	    if(mapRegion > 0) trim();
+	    raf.seek(size);
+	    periodEnd = periodEnd(new File(name));
 	  }
-	  catch(IOException e) { close(); }
+	  catch(IOException e) { close0(); }
 	}
       }
     }
@@ -157,5 +499,406 @@ public final class LogFile
   }
 
 
+  private void close0()
+  {
+    if(raf != null)
+    {
+      if(unsynced && syncInterval >= 0) sync();
+      try
+      {
+        if(map != null)
+        {
+          map = null;
+          raf.setLength(size);
+        }
+        raf.close();
+      }
+      catch(IOException ignored) {}
+      raf = null;
+    }
+  }
+
+
+  /* Removes trailing zero bytes which were left in the last mapped
+   * region when the file was not closed. */
+
+  private void trim() throws IOException
+  {
+    long l = size;
+    byte[] buf = new byte[8192];
+    while(l > 0)
+    {
+      int n = l < buf.length ? (int)l : buf.length;
+      raf.seek(l-n);
+      raf.readFully(buf, 0, n);
+      int i = n;
+      while(i > 0 && buf[i-1] == 0) i--;
+      l -= n-i;
+      if(i != 0) break;
+    }
+    if(l != size)
+    {
+      raf.setLength(l);
+      size = l;
+    }
+  }
+
+
+  private void sync()
+  {
+    if(map != null) map.force();
+    else if(raf != null)
+    {
+      try { raf.getFD().sync(); } catch(IOException ignored) {}
+    }
+    unsynced = false;
+    lastSync = System.currentTimeMillis();
+  }
+
+
+  /* Writes to the file, rotating it first if necessary. Must be called
+   * with the lock held. If the file cannot be rotated, the data is
+   * written to the current file before the exception is thrown. */
+
+  private void write(byte[] b, int len) throws IOException
+  {
+    if(!checkRaf())
+      throw new IOException("There's no underlying file to write to.");
+    IOException rollError = null;
+    if(size > 0 && ((maxSize > 0 && size+len > maxSize) ||
+                    System.currentTimeMillis() >= periodEnd))
+    {
+      try { roll(); } catch(IOException e) { rollError = e; }
+      if(!checkRaf())
+        throw new IOException("There's no underlying file to write to.");
+    }
+    if(mapRegion > 0)
+    {
+      if(map == null || size+len > mapEnd)
+      {
+        int l = len > mapRegion ? len : mapRegion;
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, size, l);
+        mapEnd = size+l;
+      }
+      map.put(b, 0, len);
+    }
+    else raf.write(b, 0, len);
+    size += len;
+    unsynced = true;
+    if(rollError != null) throw new RolloverException(rollError);
+  }
+
+
+  /* Renames the current file to a new segment. The next write opens a
+   * new file. */
+
+  private void roll() throws IOException
+  {
+    File f = new File(openedName);
+    String label = new SimpleDateFormat
+      (rotation == ROTATE_DAILY ? "yyyy-MM-dd" :
+       rotation == ROTATE_HOURLY ? "yyyy-MM-dd-HH" : "yyyy-MM-dd-HHmmss")
+      .format(new java.util.Date(rotation == ROTATE_NEVER ?
+                                 System.currentTimeMillis() : periodEnd-1));
+    String base = f.getPath()+'.'+label;
+    if(!base.equals(segBase))
+    {
+      segBase = base;
+      segIndex = lastSegment(f, label);
+    }
+    File seg;
+    do
+    {
+      segIndex++;
+      seg = new File(segIndex == 0 ? base : base+'.'+segIndex);
+    }
+    while(seg.exists() || new File(seg.getPath()+".gz").exists());
+    close0();
+    if(!f.renameTo(seg))
+      throw new IOException("Cannot rename "+f+" to "+seg);
+    if(compress || maxSegments > 0 || maxAge > 0)
+    {
+      if(archiver == null)
+      {
+        archiver = new Archiver();
+        archiver.start();
+      }
+      archiver.add(seg, f.getName()+'.', compress, maxSegments, maxAge);
+    }
+  }
+
+
+  /* Returns the highest counter of the existing segments of a file with
+   * the given label (0 for the segment without a counter), or -1 if there
+   * are none. Counters are never reused, so the segment names of one
+   * label sort chronologically even after old segments were removed. */
+
+  private static int lastSegment(File f, String label)
+  {
+    File dir = f.getAbsoluteFile().getParentFile();
+    String[] names = (dir == null) ? null : dir.list();
+    if(names == null) return -1;
+    String prefix = f.getName()+'.'+label;
+    int last = -1;
+    for(int i=0; i<names.length; i++)
+    {
+      if(!names[i].startsWith(prefix)) continue;
+      String rest = names[i].substring(prefix.length());
+      if(rest.endsWith(".tmp")) rest = rest.substring(0, rest.length()-4);
+      if(rest.endsWith(".gz")) rest = rest.substring(0, rest.length()-3);
+      int n;
+      if(rest.length() == 0) n = 0;
+      else if(rest.charAt(0) != '.') continue;
+      else
+      {
+        try { n = Integer.parseInt(rest.substring(1)); }
+        catch(NumberFormatException e) { continue; }
+        if(n < 1) continue;
+      }
+      if(n > last) last = n;
+    }
+    return last;
+  }
+
+
+  private long periodEnd(File f)
+  {
+    if(rotation == ROTATE_NEVER) return Long.MAX_VALUE;
+    long t = System.currentTimeMillis();
+    if(size > 0 && f.lastModified() != 0) t = f.lastModified();
+    Calendar c = Calendar.getInstance();
+    c.setTimeInMillis(t);
+    c.set(Calendar.MINUTE, 0);
+    c.set(Calendar.SECOND, 0);
+    c.set(Calendar.MILLISECOND, 0);
+    if(rotation == ROTATE_DAILY)
+    {
+      c.set(Calendar.HOUR_OF_DAY, 0);
+      c.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    else c.add(Calendar.HOUR_OF_DAY, 1);
+    return c.getTimeInMillis();
+  }
+
+
+  /* Writes the queued lines in batches. Must be called with the lock
+   * held. */
+
+  private void drain()
+  {
+    if(queue.isEmpty()) return;
+    int size = batchSize;
+    if(batch == null || batch.length != size) batch = new byte[size];
+    int n = 0, lines = 0;
+    byte[] b;
+    while((b = (byte[])queue.poll()) != null)
+    {
+      depth.decrementAndGet();
+      pending.addAndGet(-b.length);
+      if(n+b.length > size)
+      {
+        if(n != 0) writeBatch(batch, n, lines);
+        n = 0;
+        lines = 0;
+        if(b.length > size)
+        {
+          writeBatch(b, b.length, 1);
+          continue;
+        }
+      }
+      System.arraycopy(b, 0, batch, n, b.length);
+      n += b.length;
+      lines++;
+    }
+    if(n != 0) writeBatch(batch, n, lines);
+  }
+
+
+  private void writeBatch(byte[] b, int len, int lines)
+  {
+    try
+    {
+      write(b, len);
+    }
+    catch(RolloverException e) { error = e.failure; }
+    catch(IOException e)
+    {
+      error = e;
+      dropped.addAndGet(lines);
+    }
+  }
+
+
+  private synchronized Writer startWriter()
+  {
+    if(writer == null)
+    {
+      writer = new Writer();
+      writer.start();
+      try { Runtime.getRuntime().addShutdownHook(writer.hook); }
+      catch(IllegalStateException ignored) {}
+    }
+    return writer;
+  }
+
+
+  private void stopWriter()
+  {
+    Writer w;
+    synchronized(this)
+    {
+      w = writer;
+      writer = null;
+    }
+    if(w != null)
+    {
+      try { Runtime.getRuntime().removeShutdownHook(w.hook); }
+      catch(IllegalStateException ignored) {}
+      w.stopped = true;
+      LockSupport.unpark(w);
+      try { w.join(); } catch(InterruptedException ignored) {}
+    }
+    synchronized(this) { drain(); }
+  }
+
+
+  /* The background thread in asynchronous mode. */
+
+  private final class Writer extends Thread
+  {
+    volatile boolean stopped;
+    final Thread hook = new Thread("LogFile shutdown")
+    {
+      public void run() { flush(); }
+    };
+
+    Writer()
+    {
+      super("LogFile writer");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while(!stopped)
+      {
+        if(pending.get() < batchSize)
+          LockSupport.parkNanos(this, flushInterval*1000000L);
+        synchronized(LogFile.this)
+        {
+          drain();
+          long si = syncInterval;
+          if(unsynced && si >= 0 &&
+             System.currentTimeMillis()-lastSync >= si) sync();
+        }
+      }
+    }
+  }
+
+
+  /* Thrown by write() after the data has been written. */
+
+  private static final class RolloverException extends IOException
+  {
+    final IOException failure;
+
+    RolloverException(IOException cause)
+    {
+      super(cause.getMessage());
+      this.failure = cause;
+    }
+  }
+
+
+  /* The background thread which compresses and deletes segments. */
+
+  private static final class Archiver extends Thread
+  {
+    private final Vector jobs = new Vector();
+
+    Archiver()
+    {
+      super("LogFile archiver");
+      setDaemon(true);
+    }
+
+    synchronized void add(File seg, String prefix, boolean compress,
+                          int maxSegments, long maxAge)
+    {
+      jobs.addElement(new Object[] { seg, prefix, Boolean.valueOf(compress),
+                                     new Integer(maxSegments), new Long(maxAge) });
+      notifyAll();
+    }
+
+    public void run()
+    {
+      while(true)
+      {
+        Object[] job;
+        synchronized(this)
+        {
+          while(jobs.isEmpty())
+          {
+            try { wait(); } catch(InterruptedException e) { return; }
+          }
+          job = (Object[])jobs.elementAt(0);
+          jobs.removeElementAt(0);
+        }
+        File seg = (File)job[0];
+        if(((Boolean)job[2]).booleanValue()) gzip(seg);
+        prune(seg.getAbsoluteFile().getParentFile(), (String)job[1],
+              ((Integer)job[3]).intValue(), ((Long)job[4]).longValue());
+      }
+    }
+
+    private static void gzip(File seg)
+    {
+      File tmp = new File(seg.getPath()+".gz.tmp");
+      try
+      {
+        FileInputStream in = new FileInputStream(seg);
+        try
+        {
+          new StreamConnector(in, new GZIPOutputStream
+                              (new FileOutputStream(tmp), 65536)).copy();
+        }
+        finally { in.close(); }
+        if(tmp.renameTo(new File(seg.getPath()+".gz"))) seg.delete();
+      }
+      catch(IOException e) { tmp.delete(); }
+    }
+
+    private static void prune(File dir, String prefix, int maxSegments,
+                              long maxAge)
+    {
+      String[] names = dir.list();
+      if(names == null) return;
+      Vector v = new Vector();
+      for(int i=0; i<names.length; i++)
+      {
+        String n = names[i];
+        if(n.startsWith(prefix) && n.length() > prefix.length()
+           && Character.isDigit(n.charAt(prefix.length()))
+           && !n.endsWith(".tmp"))
+          v.addElement(new File(dir, n));
+      }
+      File[] segs = new File[v.size()];
+      v.copyInto(segs);
+      Arrays.sort(segs, new Comparator()
+      {
+        public int compare(Object a, Object b)
+        {
+          long ma = ((File)a).lastModified(), mb = ((File)b).lastModified();
+          return ma > mb ? -1 : ma < mb ? 1 : 0;
+        }
+      });
+      long limit = maxAge > 0 ? System.currentTimeMillis()-maxAge : 0;
+      for(int i=0; i<segs.length; i++)
+        if((maxSegments > 0 && i >= maxSegments) || segs[i].lastModified() < limit)
+          segs[i].delete();
+    }
+  }
+
+
   public void finalize() { close(); }
 }
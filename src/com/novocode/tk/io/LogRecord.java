@@ -0,0 +1,485 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import com.novocode.tk.util.ByteString;
+import com.novocode.tk.util.ConstByteString;
+
+
+/**
+ * A binary log record with a timestamp and typed fields, which can be
+ * written to a LogFile and read with a LogRecordReader.
+ *
+ * <p>Fields are identified by numbers from 0 to MAX_FIELD and can have
+ * the types LONG, DOUBLE, STRING and BYTES. A field number may be used
+ * more than once in a record; the accessor methods return the first
+ * field with the given number. Strings are stored with one byte per
+ * character like ByteStrings.
+ *
+ * <p>A record is stored as the length of its body (as an unsigned
+ * varint), the body and a '\n' byte. The body contains the timestamp
+ * in milliseconds (an unsigned varint) followed by the fields. Each
+ * field starts with a key byte (the field number shifted left by 3
+ * bits, ORed with the type). LONG values are stored as zigzag-encoded
+ * varints, DOUBLE values as 8 bytes in big-endian order, STRING and BYTES
+ * values as their length (an unsigned varint) followed by the data.
+ *
+ * <p>The accessor methods scan the encoded fields and only decode the
+ * requested one, so records can be filtered without decoding them
+ * completely. A record which was returned by a LogRecordReader is a
+ * view of the reader's buffer and is only valid until the next call to
+ * the reader.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.LogFile#write
+ * @see com.novocode.tk.io.LogRecordReader
+ */
+
+public final class LogRecord
+{
+  /** Field type: A signed 64-bit integer. */
+  public static final int LONG = 0;
+
+  /** Field type: A string of 8-bit characters. */
+  public static final int STRING = 1;
+
+  /** Field type: An array of bytes. */
+  public static final int BYTES = 2;
+
+  /** Field type: A double precision floating point number. */
+  public static final int DOUBLE = 3;
+
+  /** The highest field number. */
+  public static final int MAX_FIELD = 31;
+
+  private byte[] data, own;
+  private int offset, length;
+  private long time;
+
+
+  /**
+   * Creates a new empty LogRecord with the current time.
+   */
+
+  public LogRecord() { clear(); }
+
+
+  /**
+   * Removes all fields and sets the timestamp to the current time.
+   *
+   * @return this LogRecord.
+   */
+
+  public LogRecord clear()
+  {
+    if(own == null) own = new byte[64];
+    data = own;
+    offset = 0;
+    length = 0;
+    time = System.currentTimeMillis();
+    return this;
+  }
+
+
+  /**
+   * Sets the timestamp.
+   *
+   * @param millis the time in milliseconds since the epoch.
+   * @return this LogRecord.
+   */
+
+  public LogRecord setTime(long millis)
+  {
+    time = millis;
+    return this;
+  }
+
+
+  /**
+   * @return the timestamp in milliseconds since the epoch.
+   */
+
+  public long getTime() { return time; }
+
+
+  /**
+   * Adds a LONG field.
+   *
+   * @param field the field number.
+   * @param value the value.
+   * @return this LogRecord.
+   */
+
+  public LogRecord add(int field, long value)
+  {
+    key(field, LONG, 10);
+    putVarint((value << 1) ^ (value >> 63));
+    return this;
+  }
+
+
+  /**
+   * Adds a DOUBLE field.
+   *
+   * @param field the field number.
+   * @param value the value.
+   * @return this LogRecord.
+   */
+
+  public LogRecord add(int field, double value)
+  {
+    key(field, DOUBLE, 8);
+    long v = Double.doubleToLongBits(value);
+    for(int s=56; s>=0; s-=8) data[length++] = (byte)(v >>> s);
+    return this;
+  }
+
+
+  /**
+   * Adds a STRING field. Only the low byte of each character is stored.
+   *
+   * @param field the field number.
+   * @param value the value.
+   * @return this LogRecord.
+   */
+
+  public LogRecord add(int field, String value)
+  {
+    int l = value.length();
+    key(field, STRING, l+5);
+    putVarint(l);
+    value.getBytes(0, l, data, length);
+    length += l;
+    return this;
+  }
+
+
+  /**
+   * Adds a STRING field.
+   *
+   * @param field the field number.
+   * @param value the value.
+   * @return this LogRecord.
+   */
+
+  public LogRecord add(int field, ConstByteString value)
+  {
+    int l = value.length;
+    key(field, STRING, l+5);
+    putVarint(l);
+    System.arraycopy(value.data, value.offset, data, length, l);
+    length += l;
+    return this;
+  }
+
+
+  /**
+   * Adds a BYTES field.
+   *
+   * @param field the field number.
+   * @param b a byte array.
+   * @param off the offset of the value in the array.
+   * @param len the length of the value.
+   * @return this LogRecord.
+   */
+
+  public LogRecord add(int field, byte[] b, int off, int len)
+  {
+    key(field, BYTES, len+5);
+    putVarint(len);
+    System.arraycopy(b, off, data, length, len);
+    length += len;
+    return this;
+  }
+
+
+  /**
+   * Returns the type of a field.
+   *
+   * @param field the field number.
+   * @return the type or -1 if the record does not contain the field.
+   */
+
+  public int getType(int field)
+  {
+    int p = find(field);
+    return p < 0 ? -1 : data[p] & 7;
+  }
+
+
+  /**
+   * Returns the value of a LONG field.
+   *
+   * @param field the field number.
+   * @param def the default value.
+   * @return the value or the default value if the record does not
+   *         contain a LONG field with this number.
+   */
+
+  public long getLong(int field, long def)
+  {
+    int p = find(field);
+    if(p < 0 || (data[p] & 7) != LONG) return def;
+    long v = varint(p+1);
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+
+  /**
+   * Returns the value of a DOUBLE field.
+   *
+   * @param field the field number.
+   * @param def the default value.
+   * @return the value or the default value if the record does not
+   *         contain a DOUBLE field with this number.
+   */
+
+  public double getDouble(int field, double def)
+  {
+    int p = find(field);
+    if(p < 0 || (data[p] & 7) != DOUBLE) return def;
+    long v = 0;
+    for(int i=1; i<=8; i++) v = (v << 8) | (data[p+i] & 0xFF);
+    return Double.longBitsToDouble(v);
+  }
+
+
+  /**
+   * Returns the value of a STRING or BYTES field as a String.
+   *
+   * @param field the field number.
+   * @return the value or null if the record does not contain a STRING
+   *         or BYTES field with this number.
+   */
+
+  public String getString(int field)
+  {
+    int p = value(field);
+    if(p < 0) return null;
+    return new String(data, 0, p, vlen);
+  }
+
+
+  /**
+   * Makes a ByteString a view of the value of a STRING or BYTES field.
+   * The data is not copied.
+   *
+   * @param field the field number.
+   * @param view the ByteString which is changed to a view of the value.
+   * @return the view or null if the record does not contain a STRING
+   *         or BYTES field with this number.
+   */
+
+  public ByteString getString(int field, ByteString view)
+  {
+    int p = value(field);
+    if(p < 0) return null;
+    view.data = data;
+    view.offset = p;
+    view.length = vlen;
+    return view;
+  }
+
+
+  /**
+   * Checks whether a STRING or BYTES field has the given value without
+   * decoding it.
+   *
+   * @param field the field number.
+   * @param value the value.
+   * @return true if the record contains a STRING or BYTES field with
+   *         this number and value, otherwise false.
+   */
+
+  public boolean matches(int field, ConstByteString value)
+  {
+    int p = value(field);
+    if(p < 0 || vlen != value.length) return false;
+    byte[] vd = value.data;
+    for(int i=0, j=value.offset; i<value.length; i++, j++)
+      if(data[p+i] != vd[j]) return false;
+    return true;
+  }
+
+
+  /**
+   * Checks whether a LONG field has the given value.
+   *
+   * @param field the field number.
+   * @param value the value.
+   * @return true if the record contains a LONG field with this number
+   *         and value, otherwise false.
+   */
+
+  public boolean matches(int field, long value)
+  {
+    int p = find(field);
+    if(p < 0 || (data[p] & 7) != LONG) return false;
+    return varint(p+1) == ((value << 1) ^ (value >> 63));
+  }
+
+
+  /**
+   * Appends the encoded record (including length and terminator) to a
+   * ByteString.
+   *
+   * @param out a ByteString.
+   * @return the ByteString.
+   */
+
+  public ByteString appendTo(ByteString out)
+  {
+    byte[] b = toFrame();
+    out.ensureCapacity(out.length+b.length);
+    System.arraycopy(b, 0, out.data, out.offset+out.length, b.length);
+    out.length += b.length;
+    return out;
+  }
+
+
+  /* Returns the encoded record. */
+
+  byte[] toFrame()
+  {
+    int tl = varintLength(time), bl = tl+length;
+    int ll = varintLength(bl);
+    byte[] b = new byte[ll+bl+1];
+    int p = putVarint(b, 0, bl);
+    p = putVarint(b, p, time);
+    System.arraycopy(data, offset, b, p, length);
+    b[b.length-1] = '\n';
+    return b;
+  }
+
+
+  /* Makes this record a view of a body which was read by a
+   * LogRecordReader. */
+
+  void view(byte[] b, int off, int len, long t)
+  {
+    data = b;
+    offset = off;
+    length = len;
+    time = t;
+  }
+
+
+  private int pos; // the position after the last decoded varint
+  private int vlen; // the length of the last value found by value()
+
+
+  /* Returns the position of the field's key byte or -1. */
+
+  private int find(int field)
+  {
+    int p = offset, end = offset+length;
+    while(p < end)
+    {
+      int k = data[p] & 0xFF;
+      if((k >>> 3) == field) return p;
+      switch(k & 7)
+      {
+        case LONG: varint(p+1); p = pos; break;
+        case DOUBLE: p += 9; break;
+        case STRING: case BYTES:
+          int l = (int)varint(p+1);
+          p = pos+l;
+          break;
+        default: return -1;
+      }
+    }
+    return -1;
+  }
+
+
+  /* Returns the position of the data of a STRING or BYTES field (and
+   * leaves its length in vlen) or -1. */
+
+  private int value(int field)
+  {
+    int p = find(field);
+    if(p < 0) return -1;
+    int t = data[p] & 7;
+    if(t != STRING && t != BYTES) return -1;
+    vlen = (int)varint(p+1);
+    return pos;
+  }
+
+
+  private long varint(int p)
+  {
+    long v = 0;
+    int s = 0;
+    byte b;
+    do
+    {
+      b = data[p++];
+      v |= (long)(b & 0x7F) << s;
+      s += 7;
+    } while(b < 0);
+    pos = p;
+    return v;
+  }
+
+
+  private void key(int field, int type, int extra)
+  {
+    if(field < 0 || field > MAX_FIELD)
+      throw new IllegalArgumentException("Illegal field number "+field);
+    if(data != own) throw new IllegalStateException("Record is a view");
+    if(length+extra+1 > data.length)
+    {
+      int n = data.length*2;
+      if(n < length+extra+1) n = length+extra+1;
+      byte[] b = new byte[n];
+      System.arraycopy(data, 0, b, 0, length);
+      data = own = b;
+    }
+    data[length++] = (byte)((field << 3) | type);
+  }
+
+
+  private void putVarint(long v) { length = putVarint(data, length, v); }
+
+
+  static int putVarint(byte[] b, int p, long v)
+  {
+    while((v & ~0x7FL) != 0)
+    {
+      b[p++] = (byte)((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    b[p++] = (byte)v;
+    return p;
+  }
+
+
+  static int varintLength(long v)
+  {
+    int n = 1;
+    while((v & ~0x7FL) != 0) { v >>>= 7; n++; }
+    return n;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.InputStream;
+import java.io.IOException;
+import com.novocode.tk.util.ConstByteString;
+
+
+/**
+ * Reads binary LogRecords from an InputStream.
+ *
+ * <p>The records are read into a buffer and returned as views of that
+ * buffer, so that scanning a log does not create any objects and only the
+ * fields which are actually accessed are decoded. A record is only valid
+ * until the next call to <code>next()</code>.
+ *
+ * <p>Zero bytes between records are skipped. An incomplete record at the
+ * end of the stream (which is still being written) is treated like the
+ * end of the stream.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.LogRecord
+ */
+
+public final class LogRecordReader
+{
+  /** The maximum length of a record (16 MB). */
+  public static final int MAX_RECORD_LENGTH = 16*1024*1024;
+
+  private final InputStream in;
+  private byte[] buf;
+  private int pos, end;
+  private boolean eof;
+  private long skipped;
+
+
+  /**
+   * Creates a new LogRecordReader with a buffer of 64 KB.
+   *
+   * @param in an InputStream.
+   */
+
+  public LogRecordReader(InputStream in) { this(in, 65536); }
+
+
+  /**
+   * Creates a new LogRecordReader.
+   *
+   * @param in an InputStream.
+   * @param bufferSize the initial size of the buffer. The buffer grows
+   *                   if a record does not fit into it.
+   */
+
+  public LogRecordReader(InputStream in, int bufferSize)
+  {
+    this.in = in;
+    buf = new byte[bufferSize > 16 ? bufferSize : 16];
+  }
+
+
+  /**
+   * Reads the next record.
+   *
+   * @param r a LogRecord which is changed to a view of the next record.
+   * @return true if a record was read, false at the end of the stream.
+   * @exception java.io.IOException if the stream cannot be read or
+   *            contains an invalid record.
+   */
+
+  public boolean next(LogRecord r) throws IOException
+  {
+    while(true)
+    {
+      if(pos == end && !fill(1)) return false;
+      if(buf[pos] != 0) break;
+      pos++;
+    }
+
+    fill(5); // The length, which may be shorter at the end of the stream
+    int p = pos, l = 0, s = 0;
+    byte b;
+    do
+    {
+      if(p == end) return false;
+      b = buf[p++];
+      l |= (b & 0x7F) << s;
+      s += 7;
+    } while(b < 0 && s < 35);
+    if(b < 0 || l <= 0 || l > MAX_RECORD_LENGTH)
+      throw new IOException("Invalid log record length");
+
+    int hl = p-pos;
+    if(!fill(hl+l+1)) return false;
+    p = pos+hl;
+    int last = p+l;
+    if(buf[last] != '\n') throw new IOException("Corrupt log record");
+
+    long t = 0;
+    s = 0;
+    do
+    {
+      b = buf[p++];
+      t |= (long)(b & 0x7F) << s;
+      s += 7;
+    } while(b < 0 && p < last);
+    if(b < 0) throw new IOException("Corrupt log record");
+
+    r.view(buf, p, last-p, t);
+    pos = last+1;
+    return true;
+  }
+
+
+  /**
+   * Reads the next record which contains a STRING or BYTES field with
+   * the given number and value.
+   *
+   * @param r a LogRecord which is changed to a view of the next matching
+   *          record.
+   * @param field the field number.
+   * @param value the value of the field.
+   * @return true if a record was found, false at the end of the stream.
+   * @exception java.io.IOException if the stream cannot be read or
+   *            contains an invalid record.
+   * @see LogRecord#matches(int, ConstByteString)
+   */
+
+  public boolean next(LogRecord r, int field, ConstByteString value)
+    throws IOException
+  {
+    while(next(r))
+    {
+      if(r.matches(field, value)) return true;
+      skipped++;
+    }
+    return false;
+  }
+
+
+  /**
+   * Reads the next record with a timestamp in the given range.
+   *
+   * @param r a LogRecord which is changed to a view of the next matching
+   *          record.
+   * @param from the lowest timestamp.
+   * @param to the highest timestamp.
+   * @return true if a record was found, false at the end of the stream.
+   * @exception java.io.IOException if the stream cannot be read or
+   *            contains an invalid record.
+   */
+
+  public boolean next(LogRecord r, long from, long to) throws IOException
+  {
+    while(next(r))
+    {
+      long t = r.getTime();
+      if(t >= from && t <= to) return true;
+      skipped++;
+    }
+    return false;
+  }
+
+
+  /**
+   * @return the number of records which were skipped by the filtering
+   *         <code>next()</code> methods.
+   */
+
+  public long getSkipped() { return skipped; }
+
+
+  /**
+   * Closes the underlying InputStream.
+   */
+
+  public void close() throws IOException { in.close(); }
+
+
+  /* Makes sure that at least n bytes are available in the buffer,
+   * starting at pos. Returns false if the stream ends before. */
+
+  private boolean fill(int n) throws IOException
+  {
+    if(end-pos >= n) return true;
+    if(eof) return false;
+    if(pos+n > buf.length)
+    {
+      byte[] b = n > buf.length ? new byte[Math.max(n, buf.length*2)] : buf;
+      System.arraycopy(buf, pos, b, 0, end-pos);
+      buf = b;
+      end -= pos;
+      pos = 0;
+    }
+    while(end-pos < n)
+    {
+      int r = in.read(buf, end, buf.length-end);
+      if(r < 0)
+      {
+        eof = true;
+        return false;
+      }
+      end += r;
+    }
+    return true;
+  }
+}
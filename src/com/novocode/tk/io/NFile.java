@@ -22,6 +22,9 @@ package com.novocode.tk.io;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
 import java.util.Random;
 
 
@@ -47,6 +50,7 @@ import java.util.Random;
 public abstract class NFile implements Serializable
 {
   private static final Random random = new Random(System.currentTimeMillis());
+  private static volatile int copyParallelism = 1;
 
 
   /**
@@ -222,6 +226,41 @@ public abstract class NFile implements Serializable
   public abstract String[] list(FilenameFilter filter) throws NFileException;
 
 
+  /**
+   * List the contents of a listable NFile one name at a time.
+   *
+   * @return a listing of names relative to this NFile or null if this
+   *         NFile is not listable.
+   * @exception NFileException if the method fails for some reason.
+   * @see #listing(java.io.FilenameFilter)
+   */
+
+  public NFileListing listing() throws NFileException
+  {
+    return listing(null);
+  }
+
+
+  /**
+   * List the contents of a listable NFile one name at a time using the
+   * specified filter. Subclasses should override this method to read
+   * the names incrementally; the default implementation in class NFile
+   * wraps the result of <EM>list(filter)</EM>.
+   *
+   * @param filter the filter to apply, or null.
+   * @return a listing of names relative to this NFile or null if this
+   *         NFile is not listable.
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public NFileListing listing(FilenameFilter filter) throws NFileException
+  {
+    String[] subs = (filter == null) ? list() : list(filter);
+    if(subs == null) return null;
+    return new NFileListing.Array(subs, null, null);
+  }
+
+
   /**
    * Delete this NFile.
    *
@@ -265,6 +304,75 @@ public abstract class NFile implements Serializable
   }
 
 
+  /**
+   * List the contents of a listable NFile together with their attributes.
+   *
+   * @return a list of attributes or null if this NFile is not listable.
+   * @exception NFileException if the method fails for some reason.
+   * @see #listAttributes(java.lang.String[])
+   */
+
+  public NFileAttributes[] listAttributes() throws NFileException
+  {
+    return listAttributes(null);
+  }
+
+
+  /**
+   * List the contents of a listable NFile together with their attributes
+   * and the specified meta values. This is usually much faster than
+   * calling <EM>listFiles()</EM> and querying each NFile because
+   * subclasses can read all attributes at once. The default
+   * implementation in class NFile queries each child separately.
+   *
+   * @param metaNames the meta values to read, or null. Meta values are
+   *        ignored if this NFile does not support meta data.
+   * @return a list of attributes or null if this NFile is not listable.
+   * @exception NFileException if the method fails for some reason.
+   * @see #hasMetaStore()
+   */
+
+  public NFileAttributes[] listAttributes(String[] metaNames)
+    throws NFileException
+  {
+    String[] subs = list();
+    if(subs == null) return null;
+    if(!hasMetaStore()) metaNames = null;
+    NFileAttributes[] a = new NFileAttributes[subs.length];
+    for(int i=0; i<subs.length; i++)
+    {
+      NFile n = getSub(subs[i]);
+      a[i] = new NFileAttributes(subs[i], n.exists(), n.hasContent(),
+				 n.isListable(), n.length(), n.lastModified(),
+				 collectMeta(n, metaNames));
+    }
+    return a;
+  }
+
+
+  /**
+   * Read the specified meta values of an NFile into a Hashtable with
+   * lower case keys. This is a helper method for implementations of
+   * <EM>listAttributes()</EM>.
+   *
+   * @return the values or null if <EM>metaNames</EM> is null.
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  protected static Hashtable collectMeta(NFile n, String[] metaNames)
+    throws NFileException
+  {
+    if(metaNames == null) return null;
+    Hashtable meta = new Hashtable();
+    for(int j=0; j<metaNames.length; j++)
+    {
+      String v = n.getMeta(metaNames[j]);
+      if(v != null) meta.put(metaNames[j].toLowerCase(), v);
+    }
+    return meta;
+  }
+
+
   /**
    * Move this NFile to the location denoted by another NFile. If this
    * NFile is listable, all children are moved as well. The default
@@ -296,14 +404,24 @@ public abstract class NFile implements Serializable
    * object. If the resource has children, they are copied recursively.
    * The default implementation does not copy meta data. Subclasses which
    * support meta data should extend this method to copy the meta data, too.
+   * If the copy parallelism is greater than 1, listable resources are
+   * copied by an NFileCopier.
    *
    * @param dest the destination.
    * @exception NFileException if the method fails for some reason.
+   * @see #setCopyParallelism(int)
    */
 
   public void copyTo(NFile dest) throws NFileException
   {
-    if(isListable())
+    boolean listable = isListable();
+    if(listable && copyParallelism > 1)
+    {
+      new NFileCopier(copyParallelism).copy(this, dest);
+      return;
+    }
+
+    if(listable)
     {
       dest.createListable();
       String[] subs = list();
@@ -317,14 +435,56 @@ public abstract class NFile implements Serializable
       try
       {
 	InputStream in = getInputStream();
-	OutputStream out = dest.getOutputStream();
-	new StreamConnector(in, out).copy();
+	try
+	{
+	  OutputStream out = dest.getOutputStream();
+	  new StreamConnector(in, out).copy();
+	}
+	finally { in.close(); }
       }
       catch(IOException e) { throw new NFileException(e); }
     }
   }
 
 
+  /**
+   * Set the number of threads which the default implementation of
+   * <EM>copyTo()</EM> uses for copying listable resources. The default
+   * is 1, which copies sequentially in the calling thread.
+   *
+   * @param n the number of threads.
+   * @exception IllegalArgumentException if n is less than 1.
+   * @see com.novocode.tk.io.NFileCopier
+   */
+
+  public static void setCopyParallelism(int n)
+  {
+    if(n < 1) throw new IllegalArgumentException("Illegal parallelism "+n);
+    copyParallelism = n;
+  }
+
+
+  /**
+   * Return the number of threads which the default implementation of
+   * <EM>copyTo()</EM> uses for copying listable resources.
+   *
+   * @see #setCopyParallelism(int)
+   */
+
+  public static int getCopyParallelism()
+  {
+    return copyParallelism;
+  }
+
+
+  /* Returns false if NFiles of this kind must not be read by several
+   * threads at the same time (e.g. because they share a JDBC Statement
+   * whose ResultSet backs the open InputStream). An NFileCopier copies
+   * such a source with a single thread. */
+
+  boolean allowsConcurrentReads() { return true; }
+
+
   /* Contents **************************************************************/
 
   /**
@@ -345,6 +505,62 @@ public abstract class NFile implements Serializable
   public abstract InputStream getInputStream() throws NFileException;
 
 
+  /**
+   * Get an InputStream to read a range of the content of this NFile.
+   * The stream ends early if the content is shorter than the range.
+   * The default implementation skips over the first <EM>offset</EM>
+   * bytes of <EM>getInputStream()</EM>. Subclasses should override this
+   * method to start reading at the offset directly.
+   *
+   * @param offset the offset of the first byte to read.
+   * @param length the maximum number of bytes to read or -1 to read
+   *        up to the end of the content.
+   * @exception IllegalArgumentException if offset is negative or length
+   *            is less than -1.
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public InputStream getInputStream(long offset, long length)
+    throws NFileException
+  {
+    checkRange(offset, length);
+    InputStream in = getInputStream();
+    try
+    {
+      while(offset > 0)
+      {
+	long n = in.skip(offset);
+	if(n <= 0)
+	{
+	  if(in.read() < 0) break;
+	  n = 1;
+	}
+	offset -= n;
+      }
+    }
+    catch(IOException e)
+    {
+      try { in.close(); } catch(IOException ignored) {}
+      throw NFileException.getCascadeException(e);
+    }
+    return (length < 0) ? in : new BoundedInputStream(in, length);
+  }
+
+
+  /**
+   * Check the arguments of <EM>getInputStream(offset, length)</EM>.
+   *
+   * @exception IllegalArgumentException if offset is negative or length
+   *            is less than -1.
+   */
+
+  protected static void checkRange(long offset, long length)
+  {
+    if(offset < 0 || length < -1)
+      throw new IllegalArgumentException("Illegal range "+offset+"+"+length);
+  }
+
+
   /**
    * Get an InputStream to write the content of this NFile. An
    * existing content will be deleted.
@@ -379,8 +595,9 @@ public abstract class NFile implements Serializable
 	tmpFile = new File(f, prefix+random.nextLong());
       try
       {
-	new StreamConnector(getInputStream(),
-			    new FileOutputStream(tmpFile)).copy();
+	InputStream in = getInputStream();
+	try { new StreamConnector(in, new FileOutputStream(tmpFile)).copy(); }
+	finally { in.close(); }
       }
       catch(IOException e)
       {
@@ -414,6 +631,89 @@ public abstract class NFile implements Serializable
   }
 
 
+  /**
+   * Map the whole content of this NFile into memory for random access.
+   * Each successful call must be paired with a call of
+   * <EM>releaseFile()</EM> when the buffer is no longer used.
+   *
+   * @exception NFileException if the method fails for some reason.
+   * @see #map(long, long)
+   * @see #releaseFile()
+   */
+
+  public ByteBuffer map() throws NFileException
+  {
+    return map(0, -1);
+  }
+
+
+  /**
+   * Map a range of the content of this NFile into memory for random
+   * access. The returned buffer is read-only. The default implementation
+   * maps the file which is returned by <EM>obtainFile()</EM>, i.e. the
+   * real file for local files and a temporary copy otherwise. Each
+   * successful call must be paired with a call of <EM>releaseFile()</EM>
+   * when the buffer is no longer used.
+   *
+   * @param offset the offset of the first byte to map.
+   * @param length the number of bytes to map or -1 to map everything
+   *        up to the end of the content.
+   * @exception NFileException if the method fails for some reason, or
+   *            if the range does not fit into a single buffer.
+   * @see #releaseFile()
+   */
+
+  public ByteBuffer map(long offset, long length) throws NFileException
+  {
+    File f = obtainFile();
+    boolean ok = false;
+    try
+    {
+      ByteBuffer b = mapFile(f, offset, length);
+      ok = true;
+      return b;
+    }
+    finally { if(!ok) releaseFile(); }
+  }
+
+
+  /**
+   * Map a range of a local file read-only into memory. This is a helper
+   * method for implementations of <EM>map()</EM>.
+   *
+   * @param f the file.
+   * @param offset the offset of the first byte to map.
+   * @param length the number of bytes to map or -1 to map everything
+   *        up to the end of the file.
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  protected static ByteBuffer mapFile(File f, long offset, long length)
+    throws NFileException
+  {
+    try
+    {
+      RandomAccessFile raf = new RandomAccessFile(f, "r");
+      try
+      {
+	FileChannel ch = raf.getChannel();
+	long size = ch.size();
+	if(length < 0) length = size - offset;
+	if(offset < 0 || length < 0 || offset + length > size)
+	  throw new NFileException("Range "+offset+"+"+length+
+				   " out of bounds (size "+size+")");
+	if(length > Integer.MAX_VALUE)
+	  throw new NFileException("Range "+offset+"+"+length+
+				   " is too large to be mapped at once");
+	return ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+      }
+      finally { raf.close(); }
+    }
+    catch(NFileException e) { throw e; }
+    catch(IOException e) { throw NFileException.getCascadeException(e); }
+  }
+
+
   /**
    * Return a URL for this NFile.
    *
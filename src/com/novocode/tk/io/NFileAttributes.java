@@ -0,0 +1,153 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.Serializable;
+import java.util.Hashtable;
+
+
+/**
+ * NFileAttributes holds the attributes of one entry of a directory
+ * listing which was obtained with <EM>NFile.listAttributes()</EM>.
+ * The values are a snapshot taken at the time of the listing.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.NFile#listAttributes(java.lang.String[])
+ */
+
+public final class NFileAttributes implements Serializable
+{
+  private final String name;
+  private final boolean exists, content, listable;
+  private final long length, lastModified;
+  private final Hashtable meta;
+
+
+  /**
+   * Create a new NFileAttributes object.
+   *
+   * @param name the name of the entry relative to the listed NFile.
+   * @param exists false if the entry vanished or its attributes could
+   *        not be read while the listing was made.
+   * @param content true if the entry has a content.
+   * @param listable true if the entry is listable.
+   * @param length the length of the content.
+   * @param lastModified the last modification date in milliseconds
+   *        since 1/1/1970 0:00 UTC.
+   * @param meta the meta values, keyed by lower case names, or null.
+   */
+
+  public NFileAttributes(String name, boolean exists, boolean content,
+			 boolean listable, long length, long lastModified,
+			 Hashtable meta)
+  {
+    this.name = name;
+    this.exists = exists;
+    this.content = content;
+    this.listable = listable;
+    this.length = length;
+    this.lastModified = lastModified;
+    this.meta = meta;
+  }
+
+
+  /**
+   * Return the name of the entry relative to the listed NFile.
+   */
+
+  public String getName() { return name; }
+
+
+  /**
+   * Check if the entry existed when the listing was made.
+   *
+   * @see com.novocode.tk.io.NFile#exists()
+   */
+
+  public boolean exists() { return exists; }
+
+
+  /**
+   * Check if the entry has a content.
+   *
+   * @see com.novocode.tk.io.NFile#hasContent()
+   */
+
+  public boolean hasContent() { return content; }
+
+
+  /**
+   * Check if the entry is listable.
+   *
+   * @see com.novocode.tk.io.NFile#isListable()
+   */
+
+  public boolean isListable() { return listable; }
+
+
+  /**
+   * Return the length of the entry's content.
+   *
+   * @see com.novocode.tk.io.NFile#length()
+   */
+
+  public long length() { return length; }
+
+
+  /**
+   * Return the last modification date of the entry.
+   *
+   * @see com.novocode.tk.io.NFile#lastModified()
+   */
+
+  public long lastModified() { return lastModified; }
+
+
+  /**
+   * Look up a meta value which was requested for the listing.
+   *
+   * @param name the key.
+   * @return the value or null if it was not set or not requested.
+   */
+
+  public String getMeta(String name)
+  {
+    if(meta == null) return null;
+    return (String)meta.get(name.toLowerCase());
+  }
+
+
+  /**
+   * Returns a String representation of this object for debugging
+   * purposes.
+   */
+
+  public String toString()
+  {
+    return name+"[exists="+exists+",content="+content+",listable="+listable+
+      ",length="+length+",lastModified="+lastModified+
+      (meta == null ? "" : ",meta="+meta)+"]";
+  }
+}
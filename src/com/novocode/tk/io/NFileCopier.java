@@ -0,0 +1,432 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.Vector;
+
+
+/**
+ * An NFileCopier copies trees of NFiles with several threads. Independent
+ * subtrees and files are copied concurrently while a listable destination
+ * is always created before any of its children. Children are discovered
+ * with <EM>NFile.listAttributes()</EM>, so no additional queries are
+ * needed to find out whether an entry is a file or a directory.
+ *
+ * <P>Like the default implementation of <EM>NFile.copyTo()</EM>, an
+ * NFileCopier does not copy meta data. Note that the speedup depends on
+ * the NFile implementations: a JdbcNFileManager serializes all requests
+ * over its single connection, and a tree from a JdbcNFileManager is
+ * always copied by the calling thread alone because the open InputStream
+ * of a file is backed by the connection's shared Statement.
+ *
+ * <P><STRONG>Example:</STRONG>
+ *
+ * <PRE>
+ * NFileCopier c = new NFileCopier(8);
+ * c.setStopOnError(false);
+ * NFileCopier.Report r = c.copy(src, dest);
+ * System.out.println(r);
+ * </PRE>
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.NFile#copyTo(com.novocode.tk.io.NFile)
+ */
+
+public class NFileCopier
+{
+  /**
+   * The callback interface for progress notifications. The methods are
+   * called from the copying threads, possibly concurrently.
+   */
+
+  public static interface Listener
+  {
+    /**
+     * Called after an NFile was copied.
+     *
+     * @param src the source.
+     * @param dest the destination.
+     * @param bytes the number of bytes of content which were copied,
+     *        or -1 if the source has no content.
+     */
+
+    public abstract void copied(NFile src, NFile dest, long bytes);
+
+
+    /**
+     * Called when copying an NFile failed. If the source is listable,
+     * its children are skipped.
+     *
+     * @param src the source.
+     * @param dest the destination.
+     * @param e the reason.
+     */
+
+    public abstract void failed(NFile src, NFile dest, NFileException e);
+  }
+
+
+  /**
+   * A failed copy operation.
+   */
+
+  public static final class Failure
+  {
+    private final NFile src, dest;
+    private final NFileException e;
+
+    Failure(NFile src, NFile dest, NFileException e)
+    {
+      this.src = src;
+      this.dest = dest;
+      this.e = e;
+    }
+
+    public NFile getSource() { return src; }
+
+    public NFile getDestination() { return dest; }
+
+    public NFileException getException() { return e; }
+
+    public String toString() { return src+" -> "+dest+": "+e; }
+  }
+
+
+  /**
+   * The statistics of a copy operation.
+   */
+
+  public static final class Report
+  {
+    private final long files, directories, bytes, elapsed;
+    private final Failure[] failures;
+
+    Report(long files, long directories, long bytes, long elapsed,
+	   Failure[] failures)
+    {
+      this.files = files;
+      this.directories = directories;
+      this.bytes = bytes;
+      this.elapsed = elapsed;
+      this.failures = failures;
+    }
+
+    /** Return the number of NFiles with content which were copied. */
+    public long getFiles() { return files; }
+
+    /** Return the number of listable NFiles which were created. */
+    public long getDirectories() { return directories; }
+
+    /** Return the number of content bytes which were copied. */
+    public long getBytes() { return bytes; }
+
+    /** Return the elapsed time in milliseconds. */
+    public long getElapsedTime() { return elapsed; }
+
+    /** Return the throughput in bytes per second. */
+    public long getThroughput()
+    {
+      return elapsed == 0 ? bytes * 1000 : bytes * 1000 / elapsed;
+    }
+
+    /** Return the failed operations. */
+    public Failure[] getFailures() { return failures.clone(); }
+
+    public String toString()
+    {
+      return files+" files, "+directories+" directories, "+bytes+
+	" bytes in "+elapsed+" ms ("+getThroughput()+" bytes/s), "+
+	failures.length+" failures";
+    }
+  }
+
+
+  private final int parallelism;
+  private Listener listener;
+  private boolean stopOnError = true;
+  private int bufferSize = StreamConnector.DEFAULT_BUFFER_SIZE;
+  private volatile Run current;
+
+
+  /**
+   * Create a new NFileCopier.
+   *
+   * @param parallelism the number of threads which copy concurrently.
+   *        The calling thread is one of them. Trees from a
+   *        JdbcNFileManager are always copied with one thread.
+   * @exception IllegalArgumentException if parallelism is less than 1.
+   */
+
+  public NFileCopier(int parallelism)
+  {
+    if(parallelism < 1)
+      throw new IllegalArgumentException("Illegal parallelism "+parallelism);
+    this.parallelism = parallelism;
+  }
+
+
+  /**
+   * Set the Listener which is notified of the progress, or null.
+   */
+
+  public void setListener(Listener l)
+  {
+    listener = l;
+  }
+
+
+  /**
+   * Decide whether the copy operation is aborted when an NFile cannot
+   * be copied. If true (the default), <EM>copy()</EM> throws the first
+   * exception. Otherwise all failures are collected in the Report.
+   */
+
+  public void setStopOnError(boolean b)
+  {
+    stopOnError = b;
+  }
+
+
+  /**
+   * Set the size of the buffer which each thread uses for copying
+   * content.
+   *
+   * @exception IllegalArgumentException if the size is less than 1.
+   */
+
+  public void setBufferSize(int size)
+  {
+    if(size < 1) throw new IllegalArgumentException("Illegal size "+size);
+    bufferSize = size;
+  }
+
+
+  /**
+   * Return the statistics of the running copy operation or of the last
+   * one if none is running, or null if nothing was copied yet. This can
+   * be used to poll the progress from another thread.
+   */
+
+  public Report getReport()
+  {
+    Run r = current;
+    return (r == null) ? null : r.report();
+  }
+
+
+  /**
+   * Copy an NFile and all of its children to the destination.
+   *
+   * @param src the source.
+   * @param dest the destination.
+   * @return the statistics of the copy operation.
+   * @exception NFileException if an NFile cannot be copied and
+   *            <EM>setStopOnError(false)</EM> was not called, or if the
+   *            calling thread was interrupted before the copy operation
+   *            was finished. The interrupt status is preserved.
+   */
+
+  public Report copy(NFile src, NFile dest) throws NFileException
+  {
+    Run r = new Run();
+    current = r;
+    boolean listable = src.isListable(), content = src.hasContent();
+    if(listable || content) r.push(new Task(src, dest, listable, content));
+
+    int n = src.allowsConcurrentReads() ? parallelism : 1;
+    Thread[] threads = new Thread[n - 1];
+    for(int i=0; i<threads.length; i++)
+    {
+      threads[i] = new Thread(r, "NFileCopier-"+(i+1));
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+    r.run();
+    boolean interrupted = false;
+    for(int i=0; i<threads.length; i++)
+    {
+      while(true)
+      {
+	try { threads[i].join(); break; }
+	catch(InterruptedException e) { interrupted = true; r.abort(); }
+      }
+    }
+    if(interrupted) Thread.currentThread().interrupt();
+
+    Report rep = r.report();
+    if(r.error != null) throw r.error;
+    if(stopOnError && rep.failures.length != 0)
+      throw rep.failures[0].getException();
+    if(!r.completed())
+      throw new NFileException("Copy operation interrupted");
+    return rep;
+  }
+
+
+  /* Implementation ********************************************************/
+
+  private static final class Task
+  {
+    final NFile src, dest;
+    final boolean listable, content;
+
+    Task(NFile src, NFile dest, boolean listable, boolean content)
+    {
+      this.src = src;
+      this.dest = dest;
+      this.listable = listable;
+      this.content = content;
+    }
+  }
+
+
+  private final class Run implements Runnable
+  {
+    private final LinkedList stack = new LinkedList();
+    private final Vector failures = new Vector();
+    private final long start = System.currentTimeMillis();
+    private int pending;
+    private boolean aborted;
+    private long files, directories, bytes, end;
+    volatile RuntimeException error;
+
+    synchronized void push(Task t)
+    {
+      stack.addFirst(t);
+      pending++;
+      notify();
+    }
+
+    private synchronized Task take()
+    {
+      if(Thread.currentThread().isInterrupted()) abort();
+      while(stack.isEmpty() && pending != 0 && !aborted)
+      {
+	try { wait(); }
+	catch(InterruptedException e)
+	{
+	  Thread.currentThread().interrupt();
+	  abort();
+	}
+      }
+      if(aborted || pending == 0) return null;
+      return (Task)stack.removeFirst();
+    }
+
+    private synchronized void done()
+    {
+      pending--;
+      if(pending == 0)
+      {
+	end = System.currentTimeMillis();
+	notifyAll();
+      }
+    }
+
+    synchronized boolean completed()
+    {
+      return pending == 0;
+    }
+
+    synchronized void abort()
+    {
+      aborted = true;
+      if(end == 0) end = System.currentTimeMillis();
+      notifyAll();
+    }
+
+    synchronized Report report()
+    {
+      long e = (end == 0 ? System.currentTimeMillis() : end) - start;
+      Failure[] f = new Failure[failures.size()];
+      failures.copyInto(f);
+      return new Report(files, directories, bytes, e, f);
+    }
+
+    public void run()
+    {
+      byte[] buf = new byte[bufferSize];
+      Task t;
+      while((t = take()) != null)
+      {
+	try { process(t, buf); }
+	catch(NFileException e) { fail(t, e); }
+	catch(IOException e) { fail(t, NFileException.getCascadeException(e)); }
+	catch(RuntimeException e) { error = e; abort(); }
+	finally { done(); }
+      }
+    }
+
+    private void fail(Task t, NFileException e)
+    {
+      failures.addElement(new Failure(t.src, t.dest, e));
+      Listener l = listener;
+      if(l != null) l.failed(t.src, t.dest, e);
+      if(stopOnError) abort();
+    }
+
+    private void process(Task t, byte[] buf) throws IOException
+    {
+      if(t.listable)
+      {
+	t.dest.createListable();
+	synchronized(this) { directories++; }
+	NFileAttributes[] a = t.src.listAttributes();
+	if(a != null)
+	  for(int i=0; i<a.length; i++)
+	  {
+	    if(!a[i].isListable() && !a[i].hasContent()) continue;
+	    String n = a[i].getName();
+	    push(new Task(t.src.getSub(n), t.dest.getSub(n),
+			  a[i].isListable(), a[i].hasContent()));
+	  }
+      }
+
+      long len = -1;
+      if(t.content)
+      {
+	InputStream in = t.src.getInputStream();
+	try
+	{
+	  StreamConnector sc = new StreamConnector(in, t.dest.getOutputStream());
+	  sc.setBuffer(buf);
+	  sc.copy();
+	  len = sc.getBytesCopied();
+	}
+	finally { in.close(); }
+	synchronized(this)
+	{
+	  files++;
+	  bytes += len;
+	}
+      }
+
+      Listener l = listener;
+      if(l != null) l.copied(t.src, t.dest, len);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+
+/**
+ * An NFileListing returns the names of the children of a listable NFile
+ * one at a time. Unlike <EM>NFile.list()</EM> it does not need to read
+ * the whole listing into memory before the first name can be processed.
+ * An optional FilenameFilter is applied while iterating.
+ *
+ * <P>An NFileListing may hold resources like an open directory handle
+ * or database cursor. It is closed automatically when the last name has
+ * been returned; <EM>close()</EM> must be called if the iteration is
+ * stopped earlier.
+ *
+ * <P><STRONG>Example:</STRONG>
+ *
+ * <PRE>
+ * NFileListing l = nfile.listing();
+ * try
+ * {
+ *   while(l.hasNext()) process(nfile.getSub(l.next()));
+ * }
+ * finally { l.close(); }
+ * </PRE>
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.NFile#listing(java.io.FilenameFilter)
+ */
+
+public abstract class NFileListing implements Closeable
+{
+  private final FilenameFilter filter;
+  private final File dir;
+  private String next;
+  private boolean closed;
+
+
+  /**
+   * Create a new NFileListing.
+   *
+   * @param filter the filter to apply, or null.
+   * @param dir the directory which is passed to the filter.
+   */
+
+  protected NFileListing(FilenameFilter filter, File dir)
+  {
+    this.filter = filter;
+    this.dir = dir;
+  }
+
+
+  /**
+   * Check if there are more names.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public boolean hasNext() throws NFileException
+  {
+    while(next == null && !closed)
+    {
+      String s = fetch();
+      if(s == null) close();
+      else if(filter == null || filter.accept(dir, s)) next = s;
+    }
+    return next != null;
+  }
+
+
+  /**
+   * Return the next name.
+   *
+   * @exception NoSuchElementException if there are no more names.
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public String next() throws NFileException
+  {
+    if(!hasNext()) throw new NoSuchElementException();
+    String s = next;
+    next = null;
+    return s;
+  }
+
+
+  /**
+   * Close this NFileListing and release all resources which are held by
+   * it. Calling this method more than once has no effect.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  public void close() throws NFileException
+  {
+    if(closed) return;
+    closed = true;
+    next = null;
+    release();
+  }
+
+
+  /**
+   * Return the next unfiltered name.
+   *
+   * @return the name or null if there are no more names.
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  protected abstract String fetch() throws NFileException;
+
+
+  /**
+   * Release all resources. This method is called once by
+   * <EM>close()</EM>. The default implementation does nothing.
+   *
+   * @exception NFileException if the method fails for some reason.
+   */
+
+  protected void release() throws NFileException {}
+
+
+  /**
+   * An NFileListing over an array of names.
+   */
+
+  static final class Array extends NFileListing
+  {
+    private String[] names;
+    private int pos;
+
+    Array(String[] names, FilenameFilter filter, File dir)
+    {
+      super(filter, dir);
+      this.names = names;
+    }
+
+    protected String fetch()
+    {
+      return (pos < names.length) ? names[pos++] : null;
+    }
+
+    protected void release()
+    {
+      names = null;
+    }
+  }
+}
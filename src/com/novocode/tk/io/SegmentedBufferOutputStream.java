@@ -0,0 +1,430 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Vector;
+
+
+/**
+ * An OutputStream which buffers the data in a chain of fixed-size chunks.
+ * Unlike ByteArrayOutputStream it never copies the data which has
+ * already been written when the buffer grows and it does not need a
+ * contiguous array for all data. Chunks of the default size are taken
+ * from a pool and returned to it by <code>reset()</code>.
+ *
+ * <p>When the size of the data exceeds the spill threshold, the data is
+ * moved to a temporary file and all further data is written to that
+ * file, so that large bodies do not use more memory than the threshold.
+ *
+ * <p>The buffered data can be read with an InputStream which reads
+ * directly from the chunks and can be written to an OutputStream or a
+ * GatheringByteChannel without copying it first. InputStreams which were
+ * created by <code>getInputStream()</code> must not be used after
+ * <code>reset()</code> has been called because the chunks may already be
+ * in use by another stream.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.io.ByteArrayBufferOutputStream
+ */
+
+public final class SegmentedBufferOutputStream extends OutputStream
+{
+  /** The default chunk size of 64 KB. */
+  public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+  private static final int MAX_POOLED = 256;
+  private static final Vector pool = new Vector();
+
+  private final int chunkSize;
+  private final Vector chunks = new Vector();
+  private byte[] current;
+  private int used;
+  private long count;
+  private long spillThreshold = Long.MAX_VALUE;
+  private File spillFile;
+  private FileOutputStream spillOut;
+
+
+  /**
+   * Creates a new SegmentedBufferOutputStream with chunks of
+   * DEFAULT_CHUNK_SIZE bytes.
+   */
+
+  public SegmentedBufferOutputStream() { this(DEFAULT_CHUNK_SIZE); }
+
+
+  /**
+   * Creates a new SegmentedBufferOutputStream. Chunks which do not have
+   * the default size are not pooled.
+   *
+   * @param chunkSize the size of the chunks in bytes.
+   */
+
+  public SegmentedBufferOutputStream(int chunkSize)
+  {
+    if(chunkSize <= 0)
+      throw new IllegalArgumentException("Illegal chunk size "+chunkSize);
+    this.chunkSize = chunkSize;
+  }
+
+
+  /**
+   * Sets the size above which the data is moved to a temporary file.
+   *
+   * @param bytes the threshold in bytes. The default is Long.MAX_VALUE
+   *              (i.e. the data is always kept in memory).
+   */
+
+  public void setSpillThreshold(long bytes) { spillThreshold = bytes; }
+
+
+  /**
+   * @return true if the data has been moved to a temporary file.
+   */
+
+  public boolean isSpilled() { return spillFile != null; }
+
+
+  /**
+   * @return the number of bytes which have been written.
+   */
+
+  public long size() { return count; }
+
+
+  public void write(int b) throws IOException
+  {
+    if(spillOut == null && count+1 > spillThreshold) spill();
+    if(spillOut != null) spillOut.write(b);
+    else
+    {
+      if(current == null || used == current.length) nextChunk();
+      current[used++] = (byte)b;
+    }
+    count++;
+  }
+
+
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    if(spillOut == null && count+len > spillThreshold) spill();
+    if(spillOut != null) spillOut.write(b, off, len);
+    else
+    {
+      int rest = len;
+      while(rest > 0)
+      {
+        if(current == null || used == current.length) nextChunk();
+        int n = current.length-used;
+        if(n > rest) n = rest;
+        System.arraycopy(b, off, current, used, n);
+        used += n;
+        off += n;
+        rest -= n;
+      }
+    }
+    count += len;
+  }
+
+
+  public void flush() throws IOException
+  {
+    if(spillOut != null) spillOut.flush();
+  }
+
+
+  /**
+   * Returns an InputStream which reads the data that has been written
+   * at the time this method is called.
+   *
+   * @exception java.io.IOException if the temporary file cannot be read.
+   */
+
+  public InputStream getInputStream() throws IOException
+  {
+    if(spillOut != null)
+    {
+      spillOut.flush();
+      // Only read the part which exists when the stream is created
+      return new BoundedInputStream(new FileInputStream(spillFile), count);
+    }
+    byte[][] cs = new byte[chunks.size()][];
+    chunks.copyInto(cs);
+    return new ChunkInputStream(cs, count);
+  }
+
+
+  /**
+   * Writes the data to an OutputStream.
+   *
+   * @param out an OutputStream.
+   * @exception java.io.IOException if an I/O error occurs.
+   */
+
+  public void writeTo(OutputStream out) throws IOException
+  {
+    if(spillOut != null)
+    {
+      InputStream in = getInputStream();
+      try
+      {
+        StreamConnector c = new StreamConnector(in, out, count);
+        c.setCloseOutput(false);
+        c.copy();
+      }
+      finally { in.close(); }
+      return;
+    }
+    long rest = count;
+    for(int i=0; rest > 0; i++)
+    {
+      byte[] c = (byte[])chunks.elementAt(i);
+      int n = rest < c.length ? (int)rest : c.length;
+      out.write(c, 0, n);
+      rest -= n;
+    }
+  }
+
+
+  /**
+   * Writes the data to a GatheringByteChannel. The chunks are written
+   * with as few gathering writes as possible, the temporary file is
+   * transferred directly to the channel.
+   *
+   * @param ch a GatheringByteChannel.
+   * @exception java.io.IOException if an I/O error occurs.
+   */
+
+  public void writeTo(GatheringByteChannel ch) throws IOException
+  {
+    if(spillOut != null)
+    {
+      spillOut.flush();
+      FileInputStream in = new FileInputStream(spillFile);
+      try
+      {
+        FileChannel fc = in.getChannel();
+        long pos = 0;
+        while(pos < count)
+        {
+          long n = fc.transferTo(pos, count-pos, ch);
+          if(n <= 0) throw new EOFException("Temporary file was truncated");
+          pos += n;
+        }
+      }
+      finally { in.close(); }
+      return;
+    }
+    int num = chunks.size();
+    ByteBuffer[] bufs = new ByteBuffer[num];
+    long rest = count;
+    for(int i=0; i<num; i++)
+    {
+      byte[] c = (byte[])chunks.elementAt(i);
+      int n = rest < c.length ? (int)rest : c.length;
+      bufs[i] = ByteBuffer.wrap(c, 0, n);
+      rest -= n;
+    }
+    int first = 0;
+    while(first < num)
+    {
+      ch.write(bufs, first, num-first);
+      while(first < num && !bufs[first].hasRemaining()) first++;
+    }
+  }
+
+
+  /**
+   * Returns a copy of the data in a new byte array.
+   *
+   * @exception java.io.IOException if the temporary file cannot be read.
+   * @exception IllegalStateException if the data does not fit into an
+   *            array.
+   */
+
+  public byte[] toByteArray() throws IOException
+  {
+    if(count > Integer.MAX_VALUE)
+      throw new IllegalStateException("Buffer too large for an array");
+    byte[] b = new byte[(int)count];
+    InputStream in = getInputStream();
+    try
+    {
+      int p = 0, n;
+      while(p < b.length && (n = in.read(b, p, b.length-p)) > 0) p += n;
+    }
+    finally { in.close(); }
+    return b;
+  }
+
+
+  /**
+   * Discards the data, returns the chunks to the pool and deletes the
+   * temporary file.
+   */
+
+  public void reset()
+  {
+    for(int i=0; i<chunks.size(); i++) release((byte[])chunks.elementAt(i));
+    chunks.removeAllElements();
+    current = null;
+    used = 0;
+    count = 0;
+    if(spillOut != null)
+    {
+      try { spillOut.close(); } catch(IOException ignored) {}
+      spillOut = null;
+    }
+    if(spillFile != null)
+    {
+      spillFile.delete();
+      spillFile = null;
+    }
+  }
+
+
+  /**
+   * Closing a SegmentedBufferOutputStream has no effect. The data can
+   * still be read. Use <code>reset()</code> to release the memory and
+   * the temporary file.
+   */
+
+  public void close() throws IOException { flush(); }
+
+
+  private void nextChunk()
+  {
+    byte[] c = null;
+    if(chunkSize == DEFAULT_CHUNK_SIZE)
+    {
+      synchronized(pool)
+      {
+        int n = pool.size();
+        if(n > 0)
+        {
+          c = (byte[])pool.elementAt(n-1);
+          pool.removeElementAt(n-1);
+        }
+      }
+    }
+    if(c == null) c = new byte[chunkSize];
+    chunks.addElement(c);
+    current = c;
+    used = 0;
+  }
+
+
+  private static void release(byte[] c)
+  {
+    if(c.length != DEFAULT_CHUNK_SIZE) return;
+    synchronized(pool)
+    {
+      if(pool.size() < MAX_POOLED) pool.addElement(c);
+    }
+  }
+
+
+  private void spill() throws IOException
+  {
+    File f = File.createTempFile("segbuf", ".tmp");
+    f.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(f);
+    try { writeTo(out); }
+    catch(IOException e)
+    {
+      out.close();
+      f.delete();
+      throw e;
+    }
+    for(int i=0; i<chunks.size(); i++) release((byte[])chunks.elementAt(i));
+    chunks.removeAllElements();
+    current = null;
+    spillFile = f;
+    spillOut = out;
+  }
+
+
+  /* Reads from a snapshot of the chunk list. */
+
+  private static final class ChunkInputStream extends InputStream
+  {
+    private final byte[][] chunks;
+    private long rest;
+    private int index, pos;
+
+    ChunkInputStream(byte[][] chunks, long count)
+    {
+      this.chunks = chunks;
+      this.rest = count;
+    }
+
+    public int read()
+    {
+      if(rest == 0) return -1;
+      if(pos == chunks[index].length) { index++; pos = 0; }
+      rest--;
+      return chunks[index][pos++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len)
+    {
+      if(len == 0) return 0;
+      if(rest == 0) return -1;
+      if(pos == chunks[index].length) { index++; pos = 0; }
+      int n = chunks[index].length-pos;
+      if(n > len) n = len;
+      if(n > rest) n = (int)rest;
+      System.arraycopy(chunks[index], pos, b, off, n);
+      pos += n;
+      rest -= n;
+      return n;
+    }
+
+    public long skip(long n)
+    {
+      long s = 0;
+      while(s < n && rest > 0)
+      {
+        if(pos == chunks[index].length) { index++; pos = 0; }
+        long l = chunks[index].length-pos;
+        if(l > n-s) l = n-s;
+        if(l > rest) l = rest;
+        pos += (int)l;
+        rest -= l;
+        s += l;
+      }
+      return s;
+    }
+
+    public int available()
+    {
+      return rest > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)rest;
+    }
+  }
+}
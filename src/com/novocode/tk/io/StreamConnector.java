@@ -21,11 +21,29 @@
 package com.novocode.tk.io;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 
 
 /**
  * Plugs two streams together, copying from one to the other.
  *
+ * <p>If both streams are plain file streams (FileInputStream and
+ * FileOutputStream, not subclasses) and the input is a regular file, the
+ * data is transferred directly between their FileChannels, which allows
+ * the operating system to copy it without moving it through the Java
+ * heap. Otherwise the data is copied through a buffer whose size can be
+ * configured and which can be shared by several StreamConnectors that
+ * are used one after another.
+ *
+ * <p>In pipelined mode (see <CODE>setPipelined()</CODE>) the input stream
+ * is read by a separate thread into a ring of buffers while the calling
+ * thread writes the filled buffers to the output stream. Reading and
+ * writing overlap, so copying between a slow source and a slow sink
+ * takes about as long as the slower of both instead of the sum.
+ * Exceptions thrown by the reading thread are rethrown by
+ * <CODE>copy()</CODE> after all data which was read before has been
+ * written.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fully documented.
  * </dl>
@@ -35,11 +53,25 @@ import java.io.*;
 
 public final class StreamConnector implements Runnable
 {
+  /** The default buffer size of 8 KB. */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private static final long TRANSFER_CHUNK = 64L*1024*1024;
+
   private InputStream in;
   private OutputStream out;
-  private int len = -1;
+  private long len = -1;
   private boolean closeOutput = true;
+  private boolean useChannels = true;
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+  private byte[] buffer;
+  private int pipeline;
+  private byte[][] ring;
+  private volatile long copied;
+  private long elapsed;
   private IOException ioe;
+  private Throwable failure;
+  private Thread thread;
 
 
   /**
@@ -68,6 +100,22 @@ public final class StreamConnector implements Runnable
    */
 
   public StreamConnector(InputStream in, OutputStream out, int bytes)
+  {
+    this(in, out, (long)bytes);
+  }
+
+
+  /**
+   * Creates a new StreamConnector that copies data from an InputStream to
+   * an OutputStream until the end of the InputStream is reached or the
+   * specified number of bytes has been copied.
+   *
+   * @param in an InputStream.
+   * @param out an OutputStream.
+   * @param bytes the maximum number of bytes to copy.
+   */
+
+  public StreamConnector(InputStream in, OutputStream out, long bytes)
   {
     this(in, out);
     len = bytes;
@@ -87,6 +135,83 @@ public final class StreamConnector implements Runnable
   }
 
 
+  /**
+   * Transfer data directly between FileChannels when both streams are
+   * file streams?
+   *
+   * @param b true if FileChannels should be used, otherwise false.
+   *          The default setting is "true".
+   */
+
+  public void setUseChannels(boolean b)
+  {
+    useChannels = b;
+  }
+
+
+  /**
+   * Sets the size of the buffer which is used for copying between
+   * streams. A buffer is allocated on the first call to
+   * <CODE>copy()</CODE> and kept for later calls.
+   *
+   * @param size the buffer size in bytes. The default size is
+   *             DEFAULT_BUFFER_SIZE.
+   * @exception IllegalArgumentException if size is not positive.
+   */
+
+  public void setBufferSize(int size)
+  {
+    if(size <= 0) throw new IllegalArgumentException("Illegal buffer size "+size);
+    bufferSize = size;
+    if(buffer != null && buffer.length != size) buffer = null;
+    ring = null;
+  }
+
+
+  /**
+   * Sets the buffer which is used for copying between streams. This
+   * allows several StreamConnectors which are not used at the same time
+   * to share one buffer.
+   *
+   * @param buf a byte array.
+   * @exception IllegalArgumentException if the array is empty.
+   */
+
+  public void setBuffer(byte[] buf)
+  {
+    if(buf.length == 0) throw new IllegalArgumentException("Empty buffer");
+    buffer = buf;
+    bufferSize = buf.length;
+    ring = null;
+  }
+
+
+  /**
+   * Copies in pipelined mode with the given number of buffers. Each
+   * buffer has the size set by <CODE>setBufferSize()</CODE>; a buffer set
+   * with <CODE>setBuffer()</CODE> is used as one of them. Data which is
+   * transferred between FileChannels is not pipelined.
+   *
+   * <P>If writing fails, the reading thread may remain blocked in a read
+   * on one of the buffers. The StreamConnector then discards its buffers
+   * and allocates new ones for the next copy; a buffer which was set with
+   * <CODE>setBuffer()</CODE> should not be used by anybody else after such
+   * a failure.
+   *
+   * @param buffers the number of buffers (at least 2), or 0 to copy
+   *                in the calling thread only. The default is 0.
+   * @exception IllegalArgumentException if buffers is 1 or negative.
+   */
+
+  public void setPipelined(int buffers)
+  {
+    if(buffers < 0 || buffers == 1)
+      throw new IllegalArgumentException("Illegal number of buffers "+buffers);
+    pipeline = buffers;
+    ring = null;
+  }
+
+
   /**
    * Copies the data.
    * You can either call this method directly or attach the StreamConnector
@@ -97,38 +222,252 @@ public final class StreamConnector implements Runnable
 
   public void copy() throws IOException
   {
+    long start = System.currentTimeMillis();
+    copied = 0;
     try
     {
-      int num;
-      byte[] ch = new byte[1024];
-      if(len == -1)
+      long rest = len;
+      if(useChannels && in.getClass() == FileInputStream.class
+         && out.getClass() == FileOutputStream.class)
+        rest = transfer(((FileInputStream)in).getChannel(),
+                        ((FileOutputStream)out).getChannel(), rest);
+      if(rest != 0)
       {
-	while((num = in.read(ch,0,1024)) > 0) out.write(ch,0,num);
+        if(pipeline != 0) copyPipelined(rest);
+        else copyStreams(rest);
       }
-      else
+    }
+    finally
+    {
+      elapsed = System.currentTimeMillis() - start;
+      if(closeOutput) out.close();
+    }
+  }
+
+
+  /* Transfers up to rest bytes (or everything if rest is -1) and returns
+   * the number of bytes which are left for copyStreams. Nothing is
+   * transferred if the input is not a regular file (e.g. a pipe). */
+
+  private long transfer(FileChannel ic, FileChannel oc, long rest)
+    throws IOException
+  {
+    long pos;
+    try
+    {
+      pos = ic.position();
+      ic.size();
+    }
+    catch(IOException e) { return rest; }
+    try
+    {
+      while(rest != 0)
       {
-	while(true)
-	{
-	  if(len >= 1024)
-	  {
-	    num = in.read(ch,0,1024);
-	    out.write(ch,0,num);
-	    if(num != 1024)
-	      throw new IOException("Unexpected end of input stream");
-	    len -= 1024;
-	  }
-	  else
-	  {
-	    num = in.read(ch,0,len);
-	    out.write(ch,0,num);
-	    if(num != len)
-	      throw new IOException("Unexpected end of input stream");
-	    break;
-	  }
-	}
+        long n = rest == -1 ? ic.size() - pos : rest;
+        if(n <= 0) break;
+        n = ic.transferTo(pos, n < TRANSFER_CHUNK ? n : TRANSFER_CHUNK, oc);
+        if(n <= 0) break;
+        pos += n;
+        copied += n;
+        if(rest != -1) rest -= n;
+      }
+    }
+    finally { ic.position(pos); }
+    return rest;
+  }
+
+
+  private void copyStreams(long rest) throws IOException
+  {
+    if(buffer == null) buffer = new byte[bufferSize];
+    byte[] buf = buffer;
+    int num;
+    if(rest == -1)
+    {
+      while((num = in.read(buf, 0, buf.length)) > 0)
+      {
+        out.write(buf, 0, num);
+        copied += num;
+      }
+    }
+    else
+    {
+      while(rest > 0)
+      {
+        num = in.read(buf, 0, rest < buf.length ? (int)rest : buf.length);
+        if(num <= 0) throw new IOException("Unexpected end of input stream");
+        out.write(buf, 0, num);
+        copied += num;
+        rest -= num;
+      }
+    }
+  }
+
+
+  private void copyPipelined(long rest) throws IOException
+  {
+    if(ring == null)
+    {
+      if(buffer == null) buffer = new byte[bufferSize];
+      ring = new byte[pipeline][];
+      ring[0] = buffer;
+      for(int i=1; i<ring.length; i++) ring[i] = new byte[bufferSize];
+    }
+    Pipe p = new Pipe(ring, rest);
+    Thread t = new Thread(p, "StreamConnector reader");
+    t.setDaemon(true);
+    t.start();
+    boolean finished = false;
+    try
+    {
+      while(true)
+      {
+        int slot;
+        synchronized(p)
+        {
+          while(p.count == 0 && !p.eof) p.wait();
+          if(p.count == 0) break;
+          slot = p.tail;
+        }
+        out.write(p.bufs[slot], 0, p.lens[slot]);
+        copied += p.lens[slot];
+        synchronized(p)
+        {
+          p.tail = (slot+1) % p.bufs.length;
+          p.count--;
+          p.notifyAll();
+        }
+      }
+      finished = true;
+    }
+    catch(InterruptedException e)
+    {
+      throw new InterruptedIOException("Interrupted while copying");
+    }
+    finally
+    {
+      synchronized(p)
+      {
+        p.aborted = true;
+        p.notifyAll();
+      }
+      // The reader may still be blocked in in.read() on one of the
+      // buffers, so they must not be used for another copy.
+      if(!finished)
+      {
+        ring = null;
+        buffer = null;
+      }
+    }
+    Throwable e = p.error;
+    if(e instanceof IOException) throw (IOException)e;
+    if(e instanceof RuntimeException) throw (RuntimeException)e;
+    if(e instanceof Error) throw (Error)e;
+    if(e != null) throw new InterruptedIOException("Reader interrupted");
+  }
+
+
+  /* The state of a pipelined copy, shared by the reading thread (which
+   * runs this object) and the writing thread. Slots from tail to
+   * head-1 are filled. */
+
+  private final class Pipe implements Runnable
+  {
+    final byte[][] bufs;
+    final int[] lens;
+    private long rest;
+    private int head;
+    int tail, count;
+    boolean eof, aborted;
+    Throwable error;
+
+    Pipe(byte[][] bufs, long rest)
+    {
+      this.bufs = bufs;
+      this.lens = new int[bufs.length];
+      this.rest = rest;
+    }
+
+    public void run()
+    {
+      try
+      {
+        while(true)
+        {
+          int slot;
+          synchronized(this)
+          {
+            while(count == bufs.length && !aborted) wait();
+            if(aborted) return;
+            slot = head;
+          }
+          byte[] buf = bufs[slot];
+          int max = (rest == -1 || rest > buf.length) ? buf.length : (int)rest;
+          int num = max == 0 ? -1 : in.read(buf, 0, max);
+          synchronized(this)
+          {
+            if(num <= 0)
+            {
+              if(rest > 0)
+                error = new IOException("Unexpected end of input stream");
+              eof = true;
+              notifyAll();
+              return;
+            }
+            if(rest != -1) rest -= num;
+            lens[slot] = num;
+            head = (slot+1) % bufs.length;
+            count++;
+            notifyAll();
+          }
+        }
+      }
+      catch(Throwable t)
+      {
+        synchronized(this)
+        {
+          error = t;
+          eof = true;
+          notifyAll();
+        }
       }
     }
-    finally { if(closeOutput) out.close(); }
+  }
+
+
+  /**
+   * Starts a new Thread which calls <CODE>run()</CODE>.
+   *
+   * @return the new Thread.
+   * @see #waitFor
+   */
+
+  public Thread start()
+  {
+    Thread t = new Thread(this, "StreamConnector");
+    thread = t;
+    t.start();
+    return t;
+  }
+
+
+  /**
+   * Waits for the Thread which was started by <CODE>start()</CODE> to
+   * finish and rethrows an exception that was thrown while copying.
+   *
+   * @exception IOException if copying failed with an IOException.
+   * @exception InterruptedException if the current thread was interrupted
+   *            while waiting.
+   * @see #start
+   */
+
+  public void waitFor() throws IOException, InterruptedException
+  {
+    Thread t = thread;
+    if(t != null) t.join();
+    if(failure instanceof RuntimeException) throw (RuntimeException)failure;
+    if(failure instanceof Error) throw (Error)failure;
+    if(ioe != null) throw ioe;
   }
 
 
@@ -137,6 +476,7 @@ public final class StreamConnector implements Runnable
    * started in a separate thread and calls <CODE>copy()</CODE>.
    *
    * @see #getException
+   * @see #start
    */
 
   public void run()
@@ -144,12 +484,23 @@ public final class StreamConnector implements Runnable
     try
     {
       ioe = null;
+      failure = null;
       copy();
     }
     catch(IOException e)
     {
       ioe = e;
     }
+    catch(RuntimeException e)
+    {
+      failure = e;
+      throw e;
+    }
+    catch(Error e)
+    {
+      failure = e;
+      throw e;
+    }
   }
 
 
@@ -166,4 +517,31 @@ public final class StreamConnector implements Runnable
   {
     return ioe;
   }
+
+
+  /**
+   * Returns the number of bytes which have been copied by the last (or
+   * current) call to <CODE>copy()</CODE>. This method may be called
+   * from another thread to monitor the progress of a copy.
+   *
+   * @return the number of bytes.
+   */
+
+  public long getBytesCopied()
+  {
+    return copied;
+  }
+
+
+  /**
+   * Returns the time which was spent in the last call to
+   * <CODE>copy()</CODE>, including closing the output stream.
+   *
+   * @return the time in milliseconds.
+   */
+
+  public long getElapsedTime()
+  {
+    return elapsed;
+  }
 }
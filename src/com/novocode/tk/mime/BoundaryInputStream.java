@@ -22,6 +22,7 @@ package com.novocode.tk.mime;
 
 import java.io.InputStream;
 import java.io.IOException;
+import com.novocode.tk.util.HeaderTable;
 
 
 /**
@@ -124,6 +125,25 @@ public class BoundaryInputStream extends InputStream
   }
 
 
+  /**
+   * Parses the header at the current position of the current part
+   * directly from the stream's buffer and advances to the data after the
+   * header. If the header is not terminated by an empty line it extends
+   * to the end of the part.
+   *
+   * @param table the HeaderTable into which the header is parsed. It
+   *              refers to the stream's buffer.
+   * @return the HeaderTable <i>table</i>, modified.
+   */
+
+  public HeaderTable readHeader(HeaderTable table)
+  {
+    int len = table.parse(data, start, boundary-start);
+    if(len == -1) start = boundary; else start += len;
+    return table;
+  }
+
+
   private int lineAfter(int i)
   {
     while(i < end) if(data[i++] == (byte)'\n') return i;
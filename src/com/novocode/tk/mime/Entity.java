@@ -23,23 +23,21 @@ package com.novocode.tk.mime;
 import java.io.*;
 import java.util.*;
 
-import com.novocode.tk.util.HeaderParser;
-import com.novocode.tk.io.Latin1InputStreamReader;
+import com.novocode.tk.util.HeaderTable;
 
 
 public class Entity
 {
   String contentType, contentTransferEncoding, contentTypeParams;
   BoundaryInputStream in;
-  private Latin1InputStreamReader asciiReader;
   private Dictionary headers;
+  private HeaderTable headerTable;
   private Entity superEntity;
 
 
   Entity(Entity e) throws IOException, MimeException
   {
     this.in = e.in;
-    this.asciiReader = e.asciiReader;
     superEntity = e;
     init();
   }
@@ -53,7 +51,6 @@ public class Entity
          throws IOException, MimeException
   {
     this.in = in;
-    this.asciiReader = new Latin1InputStreamReader(in);
     this.headers = headers;
     init();
   }
@@ -61,13 +58,9 @@ public class Entity
 
   private void init() throws IOException, MimeException
   {
-    if(headers == null)
-    {
-      headers = new Hashtable(10);
-      HeaderParser.parseHeader(this.asciiReader, headers);
-    }
+    if(headers == null) headerTable = in.readHeader(new HeaderTable());
 
-    contentType = (String)headers.get("content-type");
+    contentType = get("content-type");
     if(contentType != null)
     {
       int sep = contentType.indexOf(';');
@@ -83,14 +76,17 @@ public class Entity
       contentType = "message/rfc822";
     else contentType = "text/plain";
 
-    contentTransferEncoding =
-      ((String)headers.get("content-transfer-encoding"));
+    contentTransferEncoding = get("content-transfer-encoding");
     if(contentTransferEncoding != null)
       contentTransferEncoding = contentTransferEncoding.toLowerCase();
   }
 
 
-  public String get(String header) { return (String)headers.get(header); }
+  public String get(String header)
+  {
+    if(headerTable != null) return headerTable.getMerged(header);
+    else return (String)headers.get(header);
+  }
 
   public String getContentType() { return contentType; }
 
@@ -98,11 +94,11 @@ public class Entity
 
   public String getContentTransferEncoding() { return contentTransferEncoding;}
 
-  public String getContentID() { return (String)headers.get("content-id"); }
+  public String getContentID() { return get("content-id"); }
 
   public String getContentDescription()
   {
-    return (String)headers.get("content-description"); //-- decode via RFC1522
+    return get("content-description"); //-- decode via RFC1522
   }
 
   public Body getBody() throws MimeException
@@ -25,7 +25,10 @@ package com.novocode.tk.util;
  * A collection of static utility methods to manipulate Base16-encoded data.
  *
  * <p>Base16 encoding uses two bytes with the ASCII values of 2 hexadecimal
- * digits to represent one byte of data.
+ * digits to represent one byte of data. Upper case digits are used for
+ * encoding, both upper and lower case digits are accepted for decoding.
+ * All conversions are done through lookup tables and can write directly
+ * into caller-supplied arrays and ByteStrings.
  *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Mature. Fixed API. Fully documented.
@@ -51,12 +54,16 @@ public final class Base16
   public static String encode(String dec)
   {
     int l = dec.length();
-    StringBuffer enc = new StringBuffer(l*2);
+    char[] enc = new char[l*2];
 
-    for(int i=0; i<l; i++)
-      enc.append(enc_codes[(byte)(dec.charAt(i))]);
+    for(int i=0, j=0; i<l; i++, j+=2)
+    {
+      int n = (dec.charAt(i) & 0xFF) << 1;
+      enc[j] = enc_pairs[n];
+      enc[j+1] = enc_pairs[n+1];
+    }
 
-    return enc.toString();
+    return new String(enc);
   }
 
 
@@ -70,11 +77,9 @@ public final class Base16
 
   public static String encodeBytes(byte[] dec)
   {
-    StringBuffer enc = new StringBuffer(dec.length*2);
-
-    for(int i=0; i<dec.length; i++) enc.append(enc_codes[dec[i] & 0xFF]);
-
-    return enc.toString();
+    char[] enc = new char[dec.length*2];
+    encode(dec, 0, dec.length, enc, 0);
+    return new String(enc);
   }
 
 
@@ -83,31 +88,16 @@ public final class Base16
    *
    * @param enc the Base16 code of a Latin-1 string.
    * @return the decoded string.
+   * @exception java.lang.NumberFormatException if the code has an odd
+   *            length or contains a character which is not a hexadecimal
+   *            digit.
    * @see #encode
    */
 
   public static String decode(String enc)
   {
-    int l = enc.length();
-    StringBuffer dec = new StringBuffer(l/2);
-
-    for(int i=0; i<l; i+=2)
-    {
-      byte n, b;
-
-      b = (byte)(enc.charAt(i));
-      if((b>=(byte)('0')) && (b<=(byte)('9'))) n = (byte)(b-(byte)('0'));
-      else n = (byte)(b-(byte)('A')+10);
-      
-      b = (byte)(enc.charAt(i+1));
-      if((b>=(byte)('0')) && (b<=(byte)('9')))
-	n = (byte)((n<<4) + b-(byte)('0'));
-      else n = (byte)((n<<4) + b-(byte)('A')+10);
-
-      dec.append((char)n);
-    }
-
-    return dec.toString();
+    byte[] dec = decodeBytes(enc);
+    return new String(dec, 0, 0, dec.length);
   }
 
 
@@ -116,71 +106,228 @@ public final class Base16
    *
    * @param enc the Base16 code for the data.
    * @return the decoded byte array.
+   * @exception java.lang.NumberFormatException if the code has an odd
+   *            length or contains a character which is not a hexadecimal
+   *            digit.
    * @see #encodeBytes
    */
 
   public static byte[] decodeBytes(String enc)
   {
-    int l = enc.length();
-    int i=0, j=0;
-    byte[] dec = new byte[l/2];
+    char[] src = enc.toCharArray();
+    byte[] dec = new byte[src.length/2];
+    decode(src, 0, src.length, dec, 0);
+    return dec;
+  }
+
 
-    while(i<l)
+  /**
+   * Encodes binary data from a ByteString into another ByteString.
+   * The previous contents of <i>enc</i> are replaced.
+   *
+   * @param dec the data to be encoded.
+   * @param enc the ByteString which receives the Base16 code. It must not
+   *            be the same as or share its data array with <i>dec</i>.
+   * @return the ByteString <i>enc</i>, modified.
+   */
+
+  public static ByteString encode(ConstByteString dec, ByteString enc)
+  {
+    enc.length = dec.length*2;
+    enc.checkCapacity();
+    encode(dec.data, dec.offset, dec.length, enc.data, 0);
+    return enc;
+  }
+
+
+  /**
+   * Decodes Base16 code from a ByteString into another ByteString.
+   * The previous contents of <i>dec</i> are replaced. <i>dec</i> may be
+   * the same ByteString as <i>enc</i>, in which case the data is decoded
+   * in place.
+   *
+   * @param enc the Base16 code.
+   * @param dec the ByteString which receives the decoded data.
+   * @return the ByteString <i>dec</i>, modified.
+   * @exception java.lang.NumberFormatException if the code has an odd
+   *            length or contains a character which is not a hexadecimal
+   *            digit.
+   */
+
+  public static ByteString decode(ConstByteString enc, ByteString dec)
+  {
+    int l = enc.length;
+    if(enc == dec) decode(enc.data, enc.offset, l, dec.data, dec.offset);
+    else
     {
-      byte n, b;
+      dec.length = l/2;
+      dec.checkCapacity();
+      decode(enc.data, enc.offset, l, dec.data, 0);
+    }
+    dec.length = l/2;
+    return dec;
+  }
 
-      b = (byte)(enc.charAt(i));
-      if((b>=(byte)('0')) && (b<=(byte)('9'))) n = (byte)(b-(byte)('0'));
-      else n = (byte)(b-(byte)('A')+10);
-      
-      b = (byte)(enc.charAt(i+1));
-      if((b>=(byte)('0')) && (b<=(byte)('9')))
-	n = (byte)((n<<4) + b-(byte)('0'));
-      else n = (byte)((n<<4) + b-(byte)('A')+10);
 
-      dec[j] = n;
+  /**
+   * Encodes binary data from a byte array into a caller-supplied byte
+   * array. The destination array must have room for <code>len*2</code>
+   * bytes.
+   *
+   * @param src the data to be encoded.
+   * @param off the offset of the first byte in <i>src</i>.
+   * @param len the number of bytes to encode.
+   * @param dst the array which receives the Base16 code.
+   * @param dstOff the offset in <i>dst</i> at which to start writing.
+   * @return the number of bytes written to <i>dst</i>.
+   */
 
-      i+=2;
-      j++;
+  public static int encode(byte[] src, int off, int len,
+                           byte[] dst, int dstOff)
+  {
+    for(int i=off, j=dstOff, end=off+len; i<end; i++, j+=2)
+    {
+      int n = (src[i] & 0xFF) << 1;
+      dst[j] = enc_bytes[n];
+      dst[j+1] = enc_bytes[n+1];
     }
+    return len*2;
+  }
 
-    return dec;
+
+  /**
+   * Encodes binary data from a byte array into a caller-supplied char
+   * array. The destination array must have room for <code>len*2</code>
+   * chars.
+   *
+   * @param src the data to be encoded.
+   * @param off the offset of the first byte in <i>src</i>.
+   * @param len the number of bytes to encode.
+   * @param dst the array which receives the Base16 code.
+   * @param dstOff the offset in <i>dst</i> at which to start writing.
+   * @return the number of chars written to <i>dst</i>.
+   */
+
+  public static int encode(byte[] src, int off, int len,
+                           char[] dst, int dstOff)
+  {
+    for(int i=off, j=dstOff, end=off+len; i<end; i++, j+=2)
+    {
+      int n = (src[i] & 0xFF) << 1;
+      dst[j] = enc_pairs[n];
+      dst[j+1] = enc_pairs[n+1];
+    }
+    return len*2;
   }
 
 
-  private static final String[] enc_codes =
+  /**
+   * Decodes Base16 code from a byte array into a caller-supplied byte
+   * array. The destination array must have room for <code>len/2</code>
+   * bytes. <i>dst</i> may be the same array as <i>src</i> if
+   * <i>dstOff</i> is not greater than <i>off</i>.
+   *
+   * @param src the Base16 code.
+   * @param off the offset of the first byte in <i>src</i>.
+   * @param len the number of bytes to decode.
+   * @param dst the array which receives the decoded data.
+   * @param dstOff the offset in <i>dst</i> at which to start writing.
+   * @return the number of bytes written to <i>dst</i>.
+   * @exception java.lang.NumberFormatException if <i>len</i> is odd or
+   *            the code contains a character which is not a hexadecimal
+   *            digit.
+   */
+
+  public static int decode(byte[] src, int off, int len,
+                           byte[] dst, int dstOff)
   {
-    "00","01","02","03","04","05","06","07",
-    "08","09","0A","0B","0C","0D","0E","0F",
-    "10","11","12","13","14","15","16","17",
-    "18","19","1A","1B","1C","1D","1E","1F",
-    "20","21","22","23","24","25","26","27",
-    "28","29","2A","2B","2C","2D","2E","2F",
-    "30","31","32","33","34","35","36","37",
-    "38","39","3A","3B","3C","3D","3E","3F",
-    "40","41","42","43","44","45","46","47",
-    "48","49","4A","4B","4C","4D","4E","4F",
-    "50","51","52","53","54","55","56","57",
-    "58","59","5A","5B","5C","5D","5E","5F",
-    "60","61","62","63","64","65","66","67",
-    "68","69","6A","6B","6C","6D","6E","6F",
-    "70","71","72","73","74","75","76","77",
-    "78","79","7A","7B","7C","7D","7E","7F",
-    "80","81","82","83","84","85","86","87",
-    "88","89","8A","8B","8C","8D","8E","8F",
-    "90","91","92","93","94","95","96","97",
-    "98","99","9A","9B","9C","9D","9E","9F",
-    "A0","A1","A2","A3","A4","A5","A6","A7",
-    "A8","A9","AA","AB","AC","AD","AE","AF",
-    "B0","B1","B2","B3","B4","B5","B6","B7",
-    "B8","B9","BA","BB","BC","BD","BE","BF",
-    "C0","C1","C2","C3","C4","C5","C6","C7",
-    "C8","C9","CA","CB","CC","CD","CE","CF",
-    "D0","D1","D2","D3","D4","D5","D6","D7",
-    "D8","D9","DA","DB","DC","DD","DE","DF",
-    "E0","E1","E2","E3","E4","E5","E6","E7",
-    "E8","E9","EA","EB","EC","ED","EE","EF",
-    "F0","F1","F2","F3","F4","F5","F6","F7",
-    "F8","F9","FA","FB","FC","FD","FE","FF"
-  };
+    if((len & 1) != 0)
+      throw new NumberFormatException("Odd length of Base16 code");
+    for(int i=off, j=dstOff, end=off+len; i<end; i+=2, j++)
+    {
+      int hi = dec_codes[src[i] & 0xFF], lo = dec_codes[src[i+1] & 0xFF];
+      if((hi|lo) < 0) throw invalid(i-off);
+      dst[j] = (byte)((hi<<4) | lo);
+    }
+    return len/2;
+  }
+
+
+  /**
+   * Decodes Base16 code from a char array into a caller-supplied byte
+   * array. The destination array must have room for <code>len/2</code>
+   * bytes.
+   *
+   * @param src the Base16 code.
+   * @param off the offset of the first char in <i>src</i>.
+   * @param len the number of chars to decode.
+   * @param dst the array which receives the decoded data.
+   * @param dstOff the offset in <i>dst</i> at which to start writing.
+   * @return the number of bytes written to <i>dst</i>.
+   * @exception java.lang.NumberFormatException if <i>len</i> is odd or
+   *            the code contains a character which is not a hexadecimal
+   *            digit.
+   */
+
+  public static int decode(char[] src, int off, int len,
+                           byte[] dst, int dstOff)
+  {
+    if((len & 1) != 0)
+      throw new NumberFormatException("Odd length of Base16 code");
+    for(int i=off, j=dstOff, end=off+len; i<end; i+=2, j++)
+    {
+      char c1 = src[i], c2 = src[i+1];
+      if((c1|c2) > 0xFF) throw invalid(i-off);
+      int hi = dec_codes[c1], lo = dec_codes[c2];
+      if((hi|lo) < 0) throw invalid(i-off);
+      dst[j] = (byte)((hi<<4) | lo);
+    }
+    return len/2;
+  }
+
+
+  /**
+   * Returns the value of a single hexadecimal digit. This method is
+   * intended for stream decoders which have to keep their own state.
+   *
+   * @param b a character of Base16 code.
+   * @return the 4 bit value of the digit or -1 if it is not a
+   *         hexadecimal digit.
+   */
+
+  public static int decodeChar(byte b)
+  {
+    return dec_codes[b & 0xFF];
+  }
+
+
+  private static NumberFormatException invalid(int pos)
+  {
+    return new NumberFormatException("Invalid Base16 code at position "+pos);
+  }
+
+
+  private static final String digits = "0123456789ABCDEF";
+
+  /* Two chars / bytes for each possible byte value */
+  private static final char[] enc_pairs = new char[512];
+  private static final byte[] enc_bytes = new byte[512];
+  private static final byte[] dec_codes = new byte[256];
+
+  static
+  {
+    for(int i=0; i<256; i++)
+    {
+      enc_pairs[i*2] = digits.charAt(i>>4);
+      enc_pairs[i*2+1] = digits.charAt(i&15);
+      enc_bytes[i*2] = (byte)enc_pairs[i*2];
+      enc_bytes[i*2+1] = (byte)enc_pairs[i*2+1];
+      dec_codes[i] = -1;
+    }
+    for(int i=0; i<16; i++)
+    {
+      dec_codes[digits.charAt(i)] = (byte)i;
+      dec_codes[Character.toLowerCase(digits.charAt(i))] = (byte)i;
+    }
+  }
 }
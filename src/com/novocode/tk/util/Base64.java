@@ -24,7 +24,12 @@ package com.novocode.tk.util;
 /**
  * A collection of static utility methods to manipulate Base64-encoded data.
  *
- * <p>This class uses single-line Base64 coding as required by RFC1945.
+ * <p>By default this class uses single-line Base64 coding as required by
+ * RFC1945. The encoding methods which take a <i>flags</i> argument can
+ * also produce line-wrapped code (e.g. for MIME bodies as specified in
+ * RFC2045), code with the URL- and filename-safe alphabet and code
+ * without '=' padding (RFC4648). The decoding methods accept both
+ * alphabets.
  *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Mature. Fully documented.
@@ -40,6 +45,29 @@ public final class Base64
   private Base64() {}
 
 
+  /**
+   * Encoding flag: Use the URL- and filename-safe alphabet with '-' and
+   * '_' instead of '+' and '/'.
+   */
+
+  public static final int URL_SAFE = 1;
+
+
+  /**
+   * Encoding flag: Do not align the code to 3 byte boundaries with '='
+   * characters.
+   */
+
+  public static final int NO_PADDING = 2;
+
+
+  /**
+   * The maximum line length for MIME bodies (76 characters).
+   */
+
+  public static final int MIME_LINE_LENGTH = 76;
+
+
   /**
    * Encodes a Latin-1 string.
    * The code is aligned to 3 byte boundaries by appending '=' characters
@@ -71,48 +99,11 @@ public final class Base64
   public static String encode(String dec, boolean align)
   {
     int l = dec.length();
-    StringBuffer enc = new StringBuffer(((l*3)+1)/2);
-    int state=0, group=0;
-
-    for(int i=0; i<l; i++)
-    {
-      switch(state)
-      {
-        case 0:
-	  group = dec.charAt(i);
-	  break;
-
-        case 1:
-	  group = (group<<8) + dec.charAt(i);
-	  break;
-
-        default:
-	  group = (group<<8) + dec.charAt(i);
-	  enc.append(codes[(group>>18)&63]);
-	  enc.append(codes[(group>>12)&63]);
-	  enc.append(codes[(group>>6)&63]);
-	  enc.append(codes[(group)&63]);
-	  state = -1;
-      }
-      state++;
-    }
-
-    switch(state)
-    {
-      case 1:
-	enc.append(codes[(group>>6)&63]);
-	enc.append(codes[(group)&63]);
-	if(align) enc.append("==");
-	break;
-
-      case 2:
-	enc.append(codes[(group>>12)&63]);
-	enc.append(codes[(group>>6)&63]);
-	enc.append(codes[(group)&63]);
-	if(align) enc.append("=");
-    }
-
-    return enc.toString();
+    byte[] src = new byte[l];
+    dec.getBytes(0, l, src, 0);
+    byte[] enc = new byte[encodedLength(l, align)];
+    encode(src, 0, l, enc, 0, align);
+    return new String(enc, 0, 0, enc.length);
   }
 
 
@@ -127,67 +118,22 @@ public final class Base64
   public static String decode(String enc)
   {
     int l = enc.length();
-    StringBuffer dec = new StringBuffer(l);
-    int state=0, group=0;
-
-    for(int i=0; i<l; i++)
-    {
-      byte b = (byte)(enc.charAt(i));
-      int n=-1;
-
-      if((b>=(byte)('A')) && (b<=(byte)('Z'))) n = b-(byte)('A');
-      else if((b>=(byte)('a')) && (b<=(byte)('z'))) n = b-(byte)('a')+26;
-      else if((b>=(byte)('1')) && (b<=(byte)('9'))) n = b-(byte)('1')+53;
-      else if(b==(byte)('0')) n = 52;
-      else if(b==(byte)('+')) n = 62;
-      else if(b==(byte)('/')) n = 63;
-      else if(b==(byte)('=')) break;
-      else continue; // ignore unknown characters
-
-      switch(state)
-      {
-        case 0:
-	  group = n;
-	  break;
-
-        case 1:
-        case 2:
-	  group = (group<<6) + n;
-	  break;
-
-        default:
-	  group = (group<<6) + n;
-	  dec.append((char)((group>>16)&255));
-	  dec.append((char)((group>>8)&255));
-	  dec.append((char)(group&255));
-	  state = -1;
-      }
-      state++;
-    }
-
-    switch(state)
-    {
-      case 3:
-	dec.append((char)((group>>8)&255));
-	dec.append((char)(group&255));
-	break;
-      case 2:
-	dec.append((char)(group&255));
-    }
-
-    return dec.toString();
+    byte[] src = new byte[l];
+    enc.getBytes(0, l, src, 0);
+    byte[] dec = new byte[maxDecodedLength(l)];
+    return new String(dec, 0, 0, decode(src, 0, l, dec, 0));
   }
 
 
   /**
    * Encodes binary data.
    * The code is aligned to 3 byte boundaries by appending '=' characters
-   * at the end if necessary. The upper 8 bits are discarded.
+   * at the end if necessary.
    *
    * @param dec the data to be encoded
    * @return The Base64 code for the data
-   * @see #encode(java.lang.String, boolean)
-   * @see #decode
+   * @see #encodeBytes(byte[], boolean)
+   * @see #decodeBytes
    */
 
   public static String encodeBytes(byte[] dec)
@@ -197,128 +143,426 @@ public final class Base64
 
 
   /**
-   * Encodes binary data. The upper 8 bits are discarded.
+   * Encodes binary data.
    *
    * @param dec the data to be encoded
    * @param align if set to true the code is aligned to 3 byte boundaries
    *              by appending '=' characters at the end if necessary.
    * @return The Base64 code for the data
-   * @see #encode(java.lang.String)
-   * @see #decode
+   * @see #encodeBytes(byte[])
+   * @see #decodeBytes
    */
 
   public static String encodeBytes(byte[] dec, boolean align)
   {
-    int l = dec.length;
-    StringBuffer enc = new StringBuffer(((l*3)+1)/2);
-    int state=0, group=0;
+    byte[] enc = new byte[encodedLength(dec.length, align)];
+    encode(dec, 0, dec.length, enc, 0, align);
+    return new String(enc, 0, 0, enc.length);
+  }
+
+
+  /**
+   * Decodes binary data.
+   *
+   * @param enc the Base64 code of the data
+   * @return the decoded data
+   * @see #encodeBytes
+   */
+
+  public static byte[] decodeBytes(String enc)
+  {
+    int l = enc.length();
+    byte[] src = new byte[l];
+    enc.getBytes(0, l, src, 0);
+    byte[] dec = new byte[maxDecodedLength(l)];
+    int declen = decode(src, 0, l, dec, 0);
+    if(declen == dec.length) return dec;
+    byte[] res = new byte[declen];
+    System.arraycopy(dec, 0, res, 0, declen);
+    return res;
+  }
+
+
+  /**
+   * Encodes binary data from a ByteString into another ByteString.
+   * The previous contents of <i>enc</i> are replaced.
+   *
+   * @param dec the data to be encoded
+   * @param enc the ByteString which receives the Base64 code. It must not
+   *            be the same as or share its data array with <i>dec</i>.
+   * @param align if set to true the code is aligned to 3 byte boundaries
+   *              by appending '=' characters at the end if necessary.
+   * @return the ByteString <i>enc</i>, modified.
+   * @see #decode(com.novocode.tk.util.ConstByteString, com.novocode.tk.util.ByteString)
+   */
+
+  public static ByteString encode(ConstByteString dec, ByteString enc,
+                                  boolean align)
+  {
+    return encode(dec, enc, align ? 0 : NO_PADDING, 0, null);
+  }
+
+
+  /**
+   * Encodes binary data from a ByteString into another ByteString.
+   * The code is written in a single pass directly into the data array of
+   * <i>enc</i>, replacing its previous contents.
+   *
+   * @param dec the data to be encoded
+   * @param enc the ByteString which receives the Base64 code. It must not
+   *            be the same as or share its data array with <i>dec</i>.
+   * @param flags a combination of URL_SAFE and NO_PADDING, or 0 for
+   *              standard aligned code
+   * @param lineLength the maximum number of characters per line, rounded
+   *                   down to a multiple of 4, or 0 for single-line code
+   * @param lineSeparator the bytes which are inserted between lines, or
+   *                      <i>null</i> for single-line code
+   * @return the ByteString <i>enc</i>, modified.
+   * @see #encodeMime
+   */
+
+  public static ByteString encode(ConstByteString dec, ByteString enc,
+                                  int flags, int lineLength,
+                                  byte[] lineSeparator)
+  {
+    int seplen = lineSeparator == null ? 0 : lineSeparator.length;
+    enc.length = encodedLength(dec.length, flags, lineLength, seplen);
+    enc.checkCapacity();
+    encode(dec.data, dec.offset, dec.length, enc.data, 0,
+           flags, lineLength, lineSeparator);
+    return enc;
+  }
+
+
+  /**
+   * Encodes binary data from a ByteString into another ByteString
+   * for use in a MIME body. The code is broken into lines of
+   * MIME_LINE_LENGTH characters separated by \r\n.
+   *
+   * @param dec the data to be encoded
+   * @param enc the ByteString which receives the Base64 code. It must not
+   *            be the same as or share its data array with <i>dec</i>.
+   * @return the ByteString <i>enc</i>, modified.
+   * @see #encode(com.novocode.tk.util.ConstByteString, com.novocode.tk.util.ByteString, int, int, byte[])
+   */
+
+  public static ByteString encodeMime(ConstByteString dec, ByteString enc)
+  {
+    return encode(dec, enc, 0, MIME_LINE_LENGTH, CRLF);
+  }
+
+
+  /**
+   * Decodes Base64 code from a ByteString into another ByteString.
+   * The previous contents of <i>dec</i> are replaced.
+   *
+   * @param enc the Base64 code
+   * @param dec the ByteString which receives the decoded data. It must
+   *            not be the same as or share its data array with <i>enc</i>.
+   * @return the ByteString <i>dec</i>, modified.
+   * @see #encode(com.novocode.tk.util.ConstByteString, com.novocode.tk.util.ByteString, boolean)
+   */
+
+  public static ByteString decode(ConstByteString enc, ByteString dec)
+  {
+    dec.length = maxDecodedLength(enc.length);
+    dec.checkCapacity();
+    dec.length = decode(enc.data, enc.offset, enc.length, dec.data, 0);
+    return dec;
+  }
 
-    for(int i=0; i<l; i++)
+
+  /**
+   * Encodes binary data from a byte array into a caller-supplied byte
+   * array. The destination array must have room for at least
+   * <code>encodedLength(len, align)</code> bytes.
+   *
+   * @param src the data to be encoded
+   * @param off the offset of the first byte in <i>src</i>
+   * @param len the number of bytes to encode
+   * @param dst the array which receives the Base64 code
+   * @param dstOff the offset in <i>dst</i> at which to start writing
+   * @param align if set to true the code is aligned to 3 byte boundaries
+   *              by appending '=' characters at the end if necessary.
+   * @return the number of bytes written to <i>dst</i>.
+   * @see #encodedLength(int, boolean)
+   */
+
+  public static int encode(byte[] src, int off, int len,
+                           byte[] dst, int dstOff, boolean align)
+  {
+    return encode(src, off, len, dst, dstOff, enc_codes, align, 0, null);
+  }
+
+
+  /**
+   * Encodes binary data from a byte array into a caller-supplied byte
+   * array. The destination array must have room for at least
+   * <code>encodedLength(len, flags, lineLength, lineSeparator.length)</code>
+   * bytes. No line separator is written after the last line.
+   *
+   * @param src the data to be encoded
+   * @param off the offset of the first byte in <i>src</i>
+   * @param len the number of bytes to encode
+   * @param dst the array which receives the Base64 code
+   * @param dstOff the offset in <i>dst</i> at which to start writing
+   * @param flags a combination of URL_SAFE and NO_PADDING, or 0 for
+   *              standard aligned code
+   * @param lineLength the maximum number of characters per line, rounded
+   *                   down to a multiple of 4, or 0 for single-line code
+   * @param lineSeparator the bytes which are inserted between lines, or
+   *                      <i>null</i> for single-line code
+   * @return the number of bytes written to <i>dst</i>.
+   * @see #encodedLength(int, int, int, int)
+   */
+
+  public static int encode(byte[] src, int off, int len,
+                           byte[] dst, int dstOff, int flags,
+                           int lineLength, byte[] lineSeparator)
+  {
+    return encode(src, off, len, dst, dstOff,
+                  (flags & URL_SAFE) != 0 ? enc_codes_url : enc_codes,
+                  (flags & NO_PADDING) == 0,
+                  lineSeparator == null ? 0 : lineLength/4,
+                  lineSeparator);
+  }
+
+
+  /* Common implementation of all encoding methods. A line separator is
+   * written before a group when the current line is full, so the code
+   * never ends with a separator. */
+
+  private static int encode(byte[] src, int off, int len,
+                            byte[] dst, int dstOff, byte[] alphabet,
+                            boolean pad, int groupsPerLine, byte[] sep)
+  {
+    int si = off, di = dstOff, end = off + len - (len % 3), column = 0;
+
+    while(si < end)
     {
-      switch(state)
+      int groups = (end-si)/3;
+      if(groupsPerLine > 0)
+      {
+        if(column == groupsPerLine)
+        {
+          System.arraycopy(sep, 0, dst, di, sep.length);
+          di += sep.length;
+          column = 0;
+        }
+        if(groups > groupsPerLine-column) groups = groupsPerLine-column;
+        column += groups;
+      }
+
+      for(int stop = si + groups*3; si < stop; si += 3, di += 4)
       {
-        case 0:
-          group = dec[i];
-          break;
-
-        case 1:
-          group = (group<<8) + dec[i];
-          break;
-
-        default:
-          group = (group<<8) + dec[i];
-          enc.append(codes[(group>>18)&63]);
-          enc.append(codes[(group>>12)&63]);
-          enc.append(codes[(group>>6)&63]);
-          enc.append(codes[(group)&63]);
-          state = -1;
+        int group = ((src[si]&0xFF)<<16) | ((src[si+1]&0xFF)<<8)
+                    | (src[si+2]&0xFF);
+        dst[di]   = alphabet[group>>>18];
+        dst[di+1] = alphabet[(group>>>12)&63];
+        dst[di+2] = alphabet[(group>>>6)&63];
+        dst[di+3] = alphabet[group&63];
       }
-      state++;
     }
 
-    switch(state)
+    if(len % 3 != 0 && groupsPerLine > 0 && column == groupsPerLine)
+    {
+      System.arraycopy(sep, 0, dst, di, sep.length);
+      di += sep.length;
+    }
+
+    switch(len % 3)
     {
       case 1:
-        enc.append(codes[(group>>6)&63]);
-        enc.append(codes[(group)&63]);
-        if(align) enc.append("==");
+      {
+        int group = src[si]&0xFF;
+        dst[di++] = alphabet[group>>>2];
+        dst[di++] = alphabet[(group<<4)&63];
+        if(pad) { dst[di++] = (byte)'='; dst[di++] = (byte)'='; }
         break;
+      }
 
       case 2:
-        enc.append(codes[(group>>12)&63]);
-        enc.append(codes[(group>>6)&63]);
-        enc.append(codes[(group)&63]);
-        if(align) enc.append("=");
+      {
+        int group = ((src[si]&0xFF)<<8) | (src[si+1]&0xFF);
+        dst[di++] = alphabet[group>>>10];
+        dst[di++] = alphabet[(group>>>4)&63];
+        dst[di++] = alphabet[(group<<2)&63];
+        if(pad) dst[di++] = (byte)'=';
+      }
     }
 
-    return enc.toString();
+    return di - dstOff;
   }
 
 
   /**
-   * Decodes binary data.
+   * Decodes Base64 code from a byte array into a caller-supplied byte
+   * array. Characters which are not part of the Base64 alphabet are
+   * ignored and decoding stops at the first '=' character. The
+   * destination array must have room for at least
+   * <code>maxDecodedLength(len)</code> bytes.
    *
-   * @param enc the Base64 code of the data
-   * @return the decoded data
-   * @see #encode
+   * @param src the Base64 code
+   * @param off the offset of the first byte in <i>src</i>
+   * @param len the number of bytes to decode
+   * @param dst the array which receives the decoded data
+   * @param dstOff the offset in <i>dst</i> at which to start writing
+   * @return the number of bytes written to <i>dst</i>.
+   * @see #maxDecodedLength
    */
 
-  public static byte[] decodeBytes(String enc)
+  public static int decode(byte[] src, int off, int len,
+                           byte[] dst, int dstOff)
   {
-    int l = enc.length();
-    ByteString dec = new ByteString(l);
-    int state=0, group=0;
+    int si = off, end = off + len, di = dstOff;
+    int state = 0, group = 0;
 
-    for(int i=0; i<l; i++)
+    while(si < end)
     {
-      byte b = (byte)(enc.charAt(i));
-      int n=-1;
-
-      if((b>=(byte)('A')) && (b<=(byte)('Z'))) n = b-(byte)('A');
-      else if((b>=(byte)('a')) && (b<=(byte)('z'))) n = b-(byte)('a')+26;
-      else if((b>=(byte)('1')) && (b<=(byte)('9'))) n = b-(byte)('1')+53;
-      else if(b==(byte)('0')) n = 52;
-      else if(b==(byte)('+')) n = 62;
-      else if(b==(byte)('/')) n = 63;
-      else if(b==(byte)('=')) break;
-      else continue; // ignore unknown characters
-
-      switch(state)
+      if(state == 0)
+      {
+        // Fast path: Decode complete groups of 4 valid characters
+        while(si+4 <= end)
+        {
+          int a = dec_codes[src[si]&0xFF], b = dec_codes[src[si+1]&0xFF];
+          int c = dec_codes[src[si+2]&0xFF], d = dec_codes[src[si+3]&0xFF];
+          if((a|b|c|d) < 0) break;
+          group = (a<<18) | (b<<12) | (c<<6) | d;
+          dst[di]   = (byte)(group>>16);
+          dst[di+1] = (byte)(group>>8);
+          dst[di+2] = (byte)group;
+          si += 4;
+          di += 3;
+        }
+        if(si >= end) break;
+      }
+
+      int n = dec_codes[src[si++]&0xFF];
+      if(n == PAD) break;
+      if(n < 0) continue; // ignore unknown characters
+
+      group = (group<<6) | n;
+      if(++state == 4)
       {
-        case 0:
-          group = n;
-          break;
-
-        case 1:
-        case 2:
-          group = (group<<6) + n;
-          break;
-
-        default:
-          group = (group<<6) + n;
-          dec.append((byte)((group>>16)&255));
-          dec.append((byte)((group>>8)&255));
-          dec.append((byte)(group&255));
-          state = -1;
+        dst[di]   = (byte)(group>>16);
+        dst[di+1] = (byte)(group>>8);
+        dst[di+2] = (byte)group;
+        di += 3;
+        state = 0;
+        group = 0;
       }
-      state++;
     }
 
     switch(state)
     {
       case 3:
-        dec.append((byte)((group>>8)&255));
-        dec.append((byte)(group&255));
+        dst[di++] = (byte)(group>>10);
+        dst[di++] = (byte)(group>>2);
         break;
 
       case 2:
-        dec.append((byte)(group&255));
+        dst[di++] = (byte)(group>>4);
     }
 
-    return dec.subCopy(0).data;
+    return di - dstOff;
+  }
+
+
+  /**
+   * Returns the length of the Base64 code for binary data of a given
+   * length.
+   *
+   * @param len the length of the data
+   * @param align true if the code is aligned to 3 byte boundaries
+   * @return the number of bytes in the Base64 code.
+   * @exception IllegalArgumentException if the code would be longer than
+   *            Integer.MAX_VALUE bytes.
+   */
+
+  public static int encodedLength(int len, boolean align)
+  {
+    return checkLength(codeLength(len, align));
+  }
+
+
+  private static long codeLength(int len, boolean align)
+  {
+    if(align) return ((len+2L)/3)*4;
+    else return (len*4L+2)/3;
+  }
+
+
+  private static int checkLength(long l)
+  {
+    if(l > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Base64 code too long: "+l);
+    return (int)l;
+  }
+
+
+  /**
+   * Returns the length of the Base64 code for binary data of a given
+   * length.
+   *
+   * @param len the length of the data
+   * @param flags a combination of URL_SAFE and NO_PADDING, or 0 for
+   *              standard aligned code
+   * @param lineLength the maximum number of characters per line, rounded
+   *                   down to a multiple of 4, or 0 for single-line code
+   * @param separatorLength the length of the line separator
+   * @return the number of bytes in the Base64 code.
+   * @exception IllegalArgumentException if the code would be longer than
+   *            Integer.MAX_VALUE bytes.
+   */
+
+  public static int encodedLength(int len, int flags, int lineLength,
+                                  int separatorLength)
+  {
+    long l = codeLength(len, (flags & NO_PADDING) == 0);
+    lineLength = (lineLength/4)*4;
+    if(lineLength > 0 && l > 0) l += ((l-1)/lineLength) * separatorLength;
+    return checkLength(l);
+  }
+
+
+  /**
+   * Returns the maximum length of the data which can be decoded from
+   * Base64 code of a given length.
+   *
+   * @param len the length of the Base64 code
+   * @return the maximum number of decoded bytes.
+   */
+
+  public static int maxDecodedLength(int len)
+  {
+    return len/4*3 + (len%4 != 0 ? 3 : 0);
+  }
+
+
+  /**
+   * Returns the value of a single Base64 character. This method is
+   * intended for stream decoders which have to keep their own state.
+   *
+   * @param b a character of Base64 code
+   * @return the 6 bit value of the character, PAD if it is the '='
+   *         padding character or -1 if it is not part of the Base64
+   *         alphabet.
+   */
+
+  public static int decodeChar(byte b)
+  {
+    return dec_codes[b&0xFF];
   }
 
 
+  /**
+   * The value returned by <code>decodeChar</code> for the '=' padding
+   * character.
+   */
+
+  public static final int PAD = -2;
+
+
   private static final char[] codes =
   {
     'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
@@ -327,4 +571,26 @@ public final class Base64
     'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
     '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
   };
+
+
+  private static final byte[] CRLF = { (byte)'\r', (byte)'\n' };
+
+  private static final byte[] enc_codes = new byte[64];
+  private static final byte[] enc_codes_url = new byte[64];
+  private static final byte[] dec_codes = new byte[256];
+
+  static
+  {
+    for(int i=0; i<256; i++) dec_codes[i] = -1;
+    for(int i=0; i<64; i++)
+    {
+      enc_codes[i] = enc_codes_url[i] = (byte)codes[i];
+      dec_codes[codes[i]] = (byte)i;
+    }
+    enc_codes_url[62] = (byte)'-';
+    enc_codes_url[63] = (byte)'_';
+    dec_codes['-'] = 62;
+    dec_codes['_'] = 63;
+    dec_codes['='] = PAD;
+  }
 }
@@ -0,0 +1,222 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.util;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.Enumeration;
+import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.ClosedWatchServiceException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+
+/**
+ * Watches the class files of FileClassLoaders for changes with a
+ * java.nio.file.WatchService (i.e. with file system events instead of
+ * polling where the platform supports it).
+ *
+ * <p>A single background thread (a daemon) receives all events. When a
+ * file that a watched loader depends on is created, modified or deleted,
+ * the loader is scheduled for reloading. The reload happens after the
+ * debounce window has passed without any further events for that loader,
+ * so that a batch of files written by a compiler causes only one reload.
+ * The reload is done in the watcher's thread: A new FileClassLoader is
+ * created, loads the class, and is then published to the old loader,
+ * whose <code>hasChanged()</code> method starts returning true.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.FileClassLoader#watch
+ */
+
+public final class ClassFileWatcher implements Runnable
+{
+  /** The default debounce window of 500 milliseconds. */
+  public static final long DEFAULT_DEBOUNCE = 500;
+
+  private final WatchService service;
+  private final long debounce;
+  private final Hashtable dirs = new Hashtable(); // Path -> Vector of loaders
+  private final Hashtable pending = new Hashtable(); // loader -> deadline
+  private final Thread thread;
+  private volatile boolean closed;
+
+
+  /**
+   * Creates a new ClassFileWatcher with the default debounce window and
+   * starts its thread.
+   *
+   * @exception java.io.IOException if the WatchService cannot be created.
+   */
+
+  public ClassFileWatcher() throws IOException { this(DEFAULT_DEBOUNCE); }
+
+
+  /**
+   * Creates a new ClassFileWatcher and starts its thread.
+   *
+   * @param debounce the time in milliseconds which has to pass without
+   *                 further changes before a loader is reloaded.
+   * @exception java.io.IOException if the WatchService cannot be created.
+   */
+
+  public ClassFileWatcher(long debounce) throws IOException
+  {
+    this.debounce = debounce;
+    service = FileSystems.getDefault().newWatchService();
+    thread = new Thread(this, "ClassFileWatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+  /**
+   * Stops watching all files and terminates the watcher's thread.
+   * Loaders which are still registered keep their current state.
+   */
+
+  public void close() throws IOException
+  {
+    closed = true;
+    service.close();
+  }
+
+
+  void register(FileClassLoader loader, File dir) throws IOException
+  {
+    Path p = dir.toPath().toAbsolutePath();
+    synchronized(dirs)
+    {
+      Vector v = (Vector)dirs.get(p);
+      if(v == null)
+      {
+        p.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        v = new Vector();
+        dirs.put(p, v);
+      }
+      if(!v.contains(loader)) v.addElement(loader);
+    }
+  }
+
+
+  void unregister(FileClassLoader loader)
+  {
+    synchronized(dirs)
+    {
+      for(Enumeration e = dirs.elements(); e.hasMoreElements();)
+        ((Vector)e.nextElement()).removeElement(loader);
+    }
+    pending.remove(loader);
+  }
+
+
+  /**
+   * Receives the file system events. This method is called by the
+   * watcher's thread and should not be called by user code.
+   */
+
+  public void run()
+  {
+    try
+    {
+      while(!closed)
+      {
+        WatchKey key;
+        long next = nextDeadline();
+        if(next == Long.MAX_VALUE) key = service.take();
+        else
+        {
+          long wait = next - System.currentTimeMillis();
+          key = service.poll(wait > 0 ? wait : 0, TimeUnit.MILLISECONDS);
+        }
+        if(key != null) handle(key);
+        fireDue();
+      }
+    }
+    catch(ClosedWatchServiceException e) {}
+    catch(InterruptedException e) {}
+  }
+
+
+  private void handle(WatchKey key)
+  {
+    long deadline = System.currentTimeMillis() + debounce;
+    Vector v;
+    synchronized(dirs)
+    {
+      v = (Vector)dirs.get(key.watchable());
+      v = v == null ? new Vector() : (Vector)v.clone();
+    }
+
+    List events = key.pollEvents();
+    for(int j=0; j<events.size(); j++)
+    {
+      WatchEvent ev = (WatchEvent)events.get(j);
+      String name = ev.kind() == OVERFLOW ? null : ev.context().toString();
+      for(int i=0; i<v.size(); i++)
+      {
+        FileClassLoader l = (FileClassLoader)v.elementAt(i);
+        if(name == null || l.dependsOn(name)) pending.put(l, new Long(deadline));
+      }
+    }
+    key.reset();
+  }
+
+
+  private long nextDeadline()
+  {
+    long next = Long.MAX_VALUE;
+    for(Enumeration e = pending.elements(); e.hasMoreElements();)
+    {
+      long d = ((Long)e.nextElement()).longValue();
+      if(d < next) next = d;
+    }
+    return next;
+  }
+
+
+  private void fireDue()
+  {
+    long now = System.currentTimeMillis();
+    for(Enumeration e = pending.keys(); e.hasMoreElements();)
+    {
+      FileClassLoader l = (FileClassLoader)e.nextElement();
+      Long d = (Long)pending.get(l);
+      if(d != null && d.longValue() <= now)
+      {
+        pending.remove(l);
+        l.changedOnDisk(this);
+      }
+    }
+  }
+}
@@ -23,12 +23,23 @@ package com.novocode.tk.util;
 import java.util.Hashtable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 
 /**
  * A ClassLoader which loads bytecode from *.class files in a specified
  * directory.
  *
+ * <p>DirClassLoader is parallel capable: Classes with different names can
+ * be loaded concurrently. Class names for which neither a system class
+ * nor a class file in the directory exists are remembered, so that
+ * repeated lookups fail without opening the file again. These entries
+ * are discarded when the modification time of the directory changes,
+ * so that class files which are added later are found.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fixed API. Fully documented.
  * </dl>
@@ -39,8 +50,26 @@ import java.io.FileInputStream;
 
 public class DirClassLoader extends ClassLoader
 {
+  static { registerAsParallelCapable(); }
+
   private Hashtable cache = new Hashtable();
+  private Hashtable missing = new Hashtable();
+  private long missingStamp;
   private String dir;
+  private File dirFile;
+
+  private static final int MAX_MISSING = 256;
+
+
+  /* Thrown by loadClassFile() if the class file does not exist. Other
+   * errors (which may be transient) are reported as plain
+   * ClassNotFoundExceptions and are not remembered by the loaders. */
+
+  static final class MissingFileException extends ClassNotFoundException
+  {
+    MissingFileException(String s) { super(s); }
+  }
+
 
   /**
    * Creates a new DirClassLoader for the given directory.
@@ -48,23 +77,45 @@ public class DirClassLoader extends ClassLoader
    * @param dir the directory from which the classes are to be loaded.
    */
 
-  public DirClassLoader(String dir) { this.dir = dir; }
+  public DirClassLoader(String dir)
+  {
+    this.dir = dir;
+    dirFile = new File(dir);
+  }
+
 
+  /**
+   * Reads the contents of a class file through a FileChannel.
+   * This method is shared by DirClassLoader and FileClassLoader.
+   */
 
-  private byte[] loadClassData(String  name) throws ClassNotFoundException
+  static byte[] loadClassFile(File file) throws ClassNotFoundException
   {
-    File file = new File(dir + File.separatorChar + name + ".class");
-    if(!file.exists())
-      throw new ClassNotFoundException("File " + file + " not found");
+    FileInputStream in;
+    try { in = new FileInputStream(file); }
+    catch(FileNotFoundException e)
+    {
+      if(!file.exists())
+        throw new MissingFileException("File " + file + " not found");
+      throw new ClassNotFoundException(e.toString());
+    }
     try
     {
-      int l = (int)file.length();
-      FileInputStream f = new FileInputStream(file);
-      byte[] b = new byte[l];
-      f.read(b);
-      return b;
+      FileChannel ch = in.getChannel();
+      long size = ch.size();
+      if(size > Integer.MAX_VALUE)
+        throw new ClassNotFoundException("File " + file + " is too large");
+      ByteBuffer buf = ByteBuffer.allocate((int)size);
+      while(buf.hasRemaining())
+        if(ch.read(buf) == -1)
+          throw new ClassNotFoundException("Unexpected end of file " + file);
+      return buf.array();
+    }
+    catch(IOException e) { throw new ClassNotFoundException(e.toString()); }
+    finally
+    {
+      try { in.close(); } catch(IOException e) {}
     }
-    catch(Exception e) { throw new ClassNotFoundException(e.toString()); }
   }
 
 
@@ -82,21 +133,64 @@ public class DirClassLoader extends ClassLoader
    *                                   directory.
    */
 
-  public synchronized Class loadClass(String  name, boolean resolve)
-                      throws ClassNotFoundException
+  public Class loadClass(String  name, boolean resolve)
+               throws ClassNotFoundException
   {
     Class c = (Class)cache.get(name);
     if(c == null)
     {
-      try { c = findSystemClass(name); }
-      catch(ClassNotFoundException e)
+      long stamp = dirFile.lastModified();
+      if(isMissing(name, stamp)) throw new ClassNotFoundException(name);
+      synchronized(getClassLoadingLock(name))
       {
-	byte[] data = loadClassData(name);
-	c = defineClass(name, data, 0, data.length);
-	cache.put(name, c);
+        c = (Class)cache.get(name);
+        if(c == null)
+        {
+          try { c = findSystemClass(name); }
+          catch(ClassNotFoundException e)
+          {
+            byte[] data;
+            try
+            {
+              data = loadClassFile(new File(dir + File.separatorChar + name
+                                            + ".class"));
+            }
+            catch(MissingFileException e2)
+            {
+              setMissing(name, stamp);
+              throw e2;
+            }
+            c = defineClass(name, data, 0, data.length);
+            cache.put(name, c);
+          }
+        }
       }
     }
     if(resolve) resolveClass(c);
     return  c;
   }
+
+
+  private boolean isMissing(String name, long stamp)
+  {
+    synchronized(missing)
+    {
+      if(stamp != missingStamp) missing.clear();
+      return missing.containsKey(name);
+    }
+  }
+
+
+  private void setMissing(String name, long stamp)
+  {
+    synchronized(missing)
+    {
+      if(missing.isEmpty() || missing.size() >= MAX_MISSING)
+      {
+        missing.clear();
+        missingStamp = stamp;
+      }
+      if(stamp == missingStamp) missing.put(name, name);
+    }
+  }
 }
@@ -23,27 +23,48 @@ package com.novocode.tk.util;
 import java.util.Hashtable;
 import java.util.Enumeration;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 
 
 /**
  * A ClassLoader which loads a single class from a file.
  *
+ * <p>FileClassLoader is parallel capable: Referenced classes with
+ * different names can be loaded concurrently. Class names for which
+ * neither a system class nor a class file exists are remembered, so that
+ * repeated lookups fail without opening the file again. A loader which
+ * is registered with a ClassFileWatcher treats the creation of such a
+ * class file as a change.
+ *
+ * <p>By default <code>hasChanged()</code> checks the modification times
+ * of the class file and all referenced class files. A loader which is
+ * registered with a ClassFileWatcher is notified of changes by file
+ * system events instead, so that <code>hasChanged()</code> only needs to
+ * read a flag, and a new loader for the changed class is prepared in the
+ * background.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fixed API. Fully documented.
  * </dl>
  *
  * @author Stefan Zeiger
  * @see com.novocode.tk.util.DirClassLoader
+ * @see com.novocode.tk.util.ClassFileWatcher
  */
 
 public class FileClassLoader extends ClassLoader
 {
+  static { registerAsParallelCapable(); }
+
   private File file;
-  private long lastModified;
-  private Class loadedClass;
+  private volatile long lastModified;
+  private volatile Class loadedClass;
   private Hashtable cache;
+  private Hashtable missing = new Hashtable();
   private String dir;
+  private volatile ClassFileWatcher watcher;
+  private volatile boolean changed;
+  private volatile FileClassLoader successor;
 
 
   /**
@@ -94,33 +115,125 @@ public class FileClassLoader extends ClassLoader
    * Checks whether the class which is managed by this loader has changed
    * on disk and needs to be reloaded.
    *
+   * <p>If this loader is watched by a ClassFileWatcher, this method
+   * returns true as soon as the watcher has detected a change (after
+   * its debounce window) and does not access the file system.
+   *
    * @return true if the class file exists, has already been loaded, and
    *         the version on disk is newer than the loaded version;
    *         otherwise false.
+   * @see #watch
    */
 
   public boolean hasChanged()
   {
+    if(watcher != null) return changed;
     if((!file.exists()) || (lastModified == 0)) return false;
-    Enumeration e = cache.elements();
-    while(e.hasMoreElements())
-      if(((CacheEntry)e.nextElement()).hasChanged()) return true;
+    if(cache != null)
+    {
+      Enumeration e = cache.elements();
+      while(e.hasMoreElements())
+        if(((CacheEntry)e.nextElement()).hasChanged()) return true;
+    }
     return file.lastModified() > lastModified;
   }
 
 
-  private byte[] loadClassData(File f) throws ClassNotFoundException
+  /**
+   * Registers this loader with a ClassFileWatcher. The directory of the
+   * class file is watched for changes of the class file and the
+   * referenced class files which are loaded by this loader.
+   *
+   * @param watcher a ClassFileWatcher.
+   * @exception java.io.IOException if the directory cannot be watched.
+   * @see #unwatch
+   * @see #reload
+   */
+
+  public void watch(ClassFileWatcher watcher) throws IOException
   {
-    if(!f.exists()) throw new ClassNotFoundException("File "+f+" not found");
+    File d = file.getAbsoluteFile().getParentFile();
+    watcher.register(this, d);
+    this.watcher = watcher;
+  }
+
+
+  /**
+   * Removes this loader from its ClassFileWatcher. Watched loaders which
+   * are no longer needed should be removed from the watcher because it
+   * keeps references to them. Loaders which are replaced by
+   * <code>reload()</code> are removed automatically.
+   */
+
+  public void unwatch()
+  {
+    ClassFileWatcher w = watcher;
+    if(w != null) w.unregister(this);
+    watcher = null;
+  }
+
+
+  /**
+   * Returns a loader for the current version of the managed class. This
+   * is either this loader if the class has not changed, the new loader
+   * which has already been prepared by a ClassFileWatcher, or a new
+   * loader created with <code>FileClassLoader(this)</code> (and watched
+   * by the same ClassFileWatcher).
+   *
+   * @return a FileClassLoader.
+   * @see #hasChanged
+   */
+
+  public FileClassLoader reload()
+  {
+    if(!hasChanged()) return this;
+    FileClassLoader s = successor;
+    if(s == null)
+    {
+      s = new FileClassLoader(this);
+      ClassFileWatcher w = watcher;
+      if(w != null)
+      {
+        try { s.watch(w); } catch(IOException e) {}
+        unwatch();
+      }
+    }
+    return s;
+  }
+
+
+  /* Returns true if this loader depends on the file with the given name
+   * in its directory. */
+
+  boolean dependsOn(String fileName)
+  {
+    if(fileName.equals(file.getName())) return true;
+    if(cache == null || !fileName.endsWith(".class")) return false;
+    String name = fileName.substring(0, fileName.length()-6);
+    return cache.containsKey(name) || missing.containsKey(name);
+  }
+
+
+  /* Called by a ClassFileWatcher in its own thread after the debounce
+   * window to prepare a new loader. */
+
+  void changedOnDisk(ClassFileWatcher w)
+  {
+    if(loadedClass == null || !file.exists()) return;
+    FileClassLoader s = new FileClassLoader(this);
     try
     {
-      int l = (int)f.length();
-      FileInputStream in = new FileInputStream(f);
-      byte[] b = new byte[l];
-      in.read(b);
-      return b;
+      s.watch(w);
+      s.loadClass();
+      successor = s;
     }
-    catch(Exception e) { throw new ClassNotFoundException(e.toString()); }
+    catch(Throwable t)
+    {
+      // The new loader is created again by reload() and reports the error
+      s.unwatch();
+    }
+    changed = true;
+    w.unregister(this);
   }
 
 
@@ -135,14 +248,20 @@ public class FileClassLoader extends ClassLoader
 
   public Class loadClass() throws ClassNotFoundException
   {
-    if(loadedClass != null) return loadedClass;
-
-    lastModified = file.lastModified();
-    byte[] b = loadClassData(file);
-    Class c = defineClass(null, b, 0, b.length);
-    loadedClass = c;
-    resolveClass(c);
-    return c;
+    Class c = loadedClass;
+    if(c != null) return c;
+
+    synchronized(this)
+    {
+      if(loadedClass != null) return loadedClass;
+      long l = file.lastModified();
+      byte[] b = DirClassLoader.loadClassFile(file);
+      c = defineClass(null, b, 0, b.length);
+      resolveClass(c);
+      lastModified = l;
+      loadedClass = c;
+      return c;
+    }
   }
 
 
@@ -160,34 +279,45 @@ public class FileClassLoader extends ClassLoader
    * @see #loadClass()
    */
 
-  public synchronized Class loadClass(String  name, boolean resolve)
-                      throws ClassNotFoundException
+  public Class loadClass(String  name, boolean resolve)
+               throws ClassNotFoundException
   {
-    Class c = null;
-
-    if(cache != null)
-    {
-      CacheEntry entry = (CacheEntry)cache.get(name);
-      if(entry != null) c = entry.clazz;
-    }
+    Class c = cached(name);
 
     if(c == null)
     {
-      try { c = findSystemClass(name); }
-      catch(ClassNotFoundException e)
+      if(missing.containsKey(name)) throw new ClassNotFoundException(name);
+      synchronized(getClassLoadingLock(name))
       {
-	if(loadedClass != null && name.equals(loadedClass.getName()))
-	  return loadedClass;
-	else if(cache != null)
-	{
-	  File entryFile = new File(dir, name + ".class");
-	  CacheEntry entry = new CacheEntry(entryFile);
-	  byte[] data = loadClassData(entryFile);
-	  c = defineClass(name, data, 0, data.length);
-	  entry.clazz = c;
-	  cache.put(name, entry);
-	}
-	else throw e;
+        if((c = cached(name)) == null)
+        {
+          try { c = findSystemClass(name); }
+          catch(ClassNotFoundException e)
+          {
+            Class lc = loadedClass;
+            if(lc != null && name.equals(lc.getName())) return lc;
+            else if(cache != null)
+            {
+              File entryFile = new File(dir, name + ".class");
+              CacheEntry entry = new CacheEntry(entryFile);
+              byte[] data;
+              try { data = DirClassLoader.loadClassFile(entryFile); }
+              catch(DirClassLoader.MissingFileException e2)
+              {
+                missing.put(name, name);
+                throw e2;
+              }
+              c = defineClass(name, data, 0, data.length);
+              entry.clazz = c;
+              cache.put(name, entry);
+            }
+            else
+            {
+              missing.put(name, name);
+              throw e;
+            }
+          }
+        }
       }
     }
 
@@ -196,6 +326,14 @@ public class FileClassLoader extends ClassLoader
   }
 
 
+  private Class cached(String name)
+  {
+    if(cache == null) return null;
+    CacheEntry entry = (CacheEntry)cache.get(name);
+    return entry == null ? null : entry.clazz;
+  }
+
+
   /**
    * @return a File object representing the managed class.
    */
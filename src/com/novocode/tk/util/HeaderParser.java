@@ -30,11 +30,15 @@ import com.novocode.tk.io.Latin1InputStreamReader;
  * A class with a static utility method to parse an RFC822-style header
  * and create a Dictionary containing header names and their values.
  *
+ * <p>HeaderTable is a more efficient alternative which parses headers
+ * directly from a byte buffer.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fully documented.
  * </dl>
  *
  * @author Stefan Zeiger
+ * @see com.novocode.tk.util.HeaderTable
  */
 
 public final class HeaderParser
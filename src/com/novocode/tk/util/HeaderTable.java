@@ -0,0 +1,336 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.util;
+
+
+/**
+ * A table of RFC822-style header lines (e.g. MIME or HTTP headers) which
+ * is parsed directly from a byte buffer.
+ *
+ * <p>The table does not copy the header data. All headers are recorded as
+ * offset/length views into the parsed buffer in a compact int array, so
+ * the buffer must not be modified while the table is in use. Repeated
+ * headers are kept as separate entries in their original order. Header
+ * names are compared case-insensitively without creating any objects,
+ * and values are only decoded into Strings (with continuation lines
+ * unfolded) when they are accessed.
+ *
+ * <p>A HeaderTable can be reused for parsing another header by calling
+ * <code>parse()</code> again. It is not synchronized.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.HeaderParser
+ */
+
+public final class HeaderTable
+{
+  /* Entry layout: name offset, name length, value offset, value length */
+  private static final int NAME_OFF = 0, NAME_LEN = 1;
+  private static final int VALUE_OFF = 2, VALUE_LEN = 3, ENTRY = 4;
+
+  private byte[] data;
+  private int[] entries = new int[16*ENTRY];
+  private String[] values = new String[16];
+  private int count;
+
+
+  /** Creates a new, empty HeaderTable. */
+
+  public HeaderTable() {}
+
+
+  /**
+   * Parses header lines from a region of a byte array, replacing the
+   * previous contents of this table. Lines can be terminated by "\n" or
+   * "\r\n"; lines starting with a space or tab continue the previous
+   * header. Parsing stops after the first empty line. Lines without a
+   * ':' separator are ignored.
+   *
+   * <p>If the region ends before an empty line is found, all lines up to
+   * the end of the region are recorded (so that the end of the region can
+   * be treated as the end of the header) but -1 is returned.
+   *
+   * @param buf the buffer which contains the header.
+   * @param off the offset of the header in <i>buf</i>.
+   * @param len the number of bytes available in <i>buf</i>.
+   * @return the number of bytes that make up the header, including the
+   *         terminating empty line, or -1 if the header is incomplete.
+   */
+
+  public int parse(byte[] buf, int off, int len)
+  {
+    clear();
+    data = buf;
+    int end = off+len, pos = off;
+
+    while(pos < end)
+    {
+      int lineEnd = lineEnd(buf, pos, end);
+      if(lineEnd == pos) // empty line
+        return skipEol(buf, pos, end) - off;
+
+      // Find the end of the header including continuation lines
+      int next = skipEol(buf, lineEnd, end);
+      while(next < end && (buf[next] == (byte)' ' || buf[next] == (byte)'\t'))
+      {
+        lineEnd = lineEnd(buf, next, end);
+        next = skipEol(buf, lineEnd, end);
+      }
+
+      int sep = pos;
+      while(sep < lineEnd && buf[sep] != (byte)':') sep++;
+      if(sep < lineEnd) add(buf, pos, sep, lineEnd);
+      pos = next;
+    }
+
+    return -1;
+  }
+
+
+  private void add(byte[] buf, int nameStart, int sep, int valueEnd)
+  {
+    int nameEnd = sep, valueStart = sep+1;
+    while(nameStart < nameEnd && (buf[nameStart]&0xFF) <= 0x20) nameStart++;
+    while(nameEnd > nameStart && (buf[nameEnd-1]&0xFF) <= 0x20) nameEnd--;
+    while(valueStart < valueEnd && (buf[valueStart]&0xFF) <= 0x20) valueStart++;
+    while(valueEnd > valueStart && (buf[valueEnd-1]&0xFF) <= 0x20) valueEnd--;
+
+    if((count+1)*ENTRY > entries.length)
+    {
+      int[] ne = new int[entries.length*2];
+      System.arraycopy(entries, 0, ne, 0, entries.length);
+      entries = ne;
+      values = new String[count*2];
+    }
+    int e = count*ENTRY;
+    entries[e+NAME_OFF] = nameStart;
+    entries[e+NAME_LEN] = nameEnd-nameStart;
+    entries[e+VALUE_OFF] = valueStart;
+    entries[e+VALUE_LEN] = valueEnd-valueStart;
+    count++;
+  }
+
+
+  /* Returns the index of the "\n" or "\r\n" which ends the line */
+
+  private static int lineEnd(byte[] buf, int pos, int end)
+  {
+    while(pos < end)
+    {
+      byte b = buf[pos];
+      if(b == (byte)'\n') return pos;
+      if(b == (byte)'\r' && pos+1 < end && buf[pos+1] == (byte)'\n') return pos;
+      pos++;
+    }
+    return end;
+  }
+
+
+  private static int skipEol(byte[] buf, int pos, int end)
+  {
+    if(pos < end && buf[pos] == (byte)'\r') pos++;
+    if(pos < end && buf[pos] == (byte)'\n') pos++;
+    return pos;
+  }
+
+
+  /**
+   * Removes all entries from this table.
+   */
+
+  public void clear()
+  {
+    for(int i=0; i<count; i++) values[i] = null;
+    count = 0;
+    data = null;
+  }
+
+
+  /**
+   * @return the number of header entries in this table.
+   */
+
+  public int size() { return count; }
+
+
+  /**
+   * Finds the first header entry with a given name.
+   *
+   * @param name a header name (case is not significant).
+   * @return the index of the entry or -1 if there is none.
+   */
+
+  public int indexOf(String name) { return indexOf(name, 0); }
+
+
+  /**
+   * Finds the next header entry with a given name.
+   *
+   * @param name a header name (case is not significant).
+   * @param fromIndex the index of the first entry to examine.
+   * @return the index of the entry or -1 if there is none.
+   */
+
+  public int indexOf(String name, int fromIndex)
+  {
+    int nl = name.length();
+  test:
+    for(int i=fromIndex; i<count; i++)
+    {
+      int e = i*ENTRY;
+      if(entries[e+NAME_LEN] != nl) continue;
+      for(int j=0, k=entries[e+NAME_OFF]; j<nl; j++, k++)
+      {
+        byte b1 = data[k], b2 = (byte)name.charAt(j);
+        if(b1 != b2 && ConstByteString.toLowerCase(b1)
+                       != ConstByteString.toLowerCase(b2))
+          continue test;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+
+  /**
+   * @return the name of a header entry, as it appears in the header.
+   */
+
+  public String getName(int i)
+  {
+    int e = entryOffset(i);
+    return new String(data, 0, entries[e+NAME_OFF], entries[e+NAME_LEN]);
+  }
+
+
+  /**
+   * Returns the value of a header entry. Continuation lines are unfolded
+   * by removing the line terminators. The String is created when this
+   * method is called for the first time and cached afterwards.
+   *
+   * @return the value of a header entry.
+   */
+
+  public String getValue(int i)
+  {
+    int e = entryOffset(i);
+    if(values[i] != null) return values[i];
+
+    int off = entries[e+VALUE_OFF], len = entries[e+VALUE_LEN];
+    int j = off;
+    while(j < off+len && data[j] != (byte)'\r' && data[j] != (byte)'\n') j++;
+    String v;
+    if(j == off+len) v = new String(data, 0, off, len);
+    else
+    {
+      char[] c = new char[len];
+      int l = 0;
+      for(j=off; j<off+len; j++)
+      {
+        byte b = data[j];
+        if(b != (byte)'\r' && b != (byte)'\n') c[l++] = (char)(b & 0xFF);
+      }
+      v = new String(c, 0, l);
+    }
+    return values[i] = v;
+  }
+
+
+  /**
+   * Makes a ByteString a view of the name of a header entry.
+   *
+   * @param i the index of the entry.
+   * @param b an existing ByteString.
+   * @return the ByteString <i>b</i>, modified.
+   */
+
+  public ByteString viewName(int i, ByteString b)
+  {
+    int e = entryOffset(i);
+    b.data = data;
+    b.offset = entries[e+NAME_OFF];
+    b.length = entries[e+NAME_LEN];
+    return b;
+  }
+
+
+  /**
+   * Makes a ByteString a view of the raw value of a header entry. If the
+   * value spans several lines, the view contains the line terminators.
+   *
+   * @param i the index of the entry.
+   * @param b an existing ByteString.
+   * @return the ByteString <i>b</i>, modified.
+   */
+
+  public ByteString viewValue(int i, ByteString b)
+  {
+    int e = entryOffset(i);
+    b.data = data;
+    b.offset = entries[e+VALUE_OFF];
+    b.length = entries[e+VALUE_LEN];
+    return b;
+  }
+
+
+  /**
+   * Returns the value of the first header entry with a given name.
+   *
+   * @param name a header name (case is not significant).
+   * @return the value or null if there is no such header.
+   */
+
+  public String get(String name)
+  {
+    int i = indexOf(name, 0);
+    return i == -1 ? null : getValue(i);
+  }
+
+
+  /**
+   * Returns the values of all header entries with a given name, merged
+   * into a single String and separated by ", ". This is the format which
+   * is created by HeaderParser.parseHeader().
+   *
+   * @param name a header name (case is not significant).
+   * @return the merged values or null if there is no such header.
+   */
+
+  public String getMerged(String name)
+  {
+    int i = indexOf(name, 0);
+    if(i == -1) return null;
+    String v = getValue(i);
+    while((i = indexOf(name, i+1)) != -1) v = v + ", " + getValue(i);
+    return v;
+  }
+
+
+  private int entryOffset(int i)
+  {
+    if(i < 0 || i >= count) throw new ArrayIndexOutOfBoundsException(i);
+    return i*ENTRY;
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.util;
+
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.io.Serializable;
+
+
+/**
+ * A set of Strings (optionally mapped to values) which is stored as a
+ * prefix tree (trie). It can find all keys which are prefixes of a given
+ * text in a single scan over the text, and look up keys in a region of a
+ * String, without creating any substrings.
+ *
+ * <p>PrefixTrie is not synchronized. A trie can be shared by several
+ * threads as long as no keys are added while it is in use.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.VarTemplate
+ */
+
+public final class PrefixTrie implements Serializable
+{
+  private final Node root = new Node();
+  private int size;
+
+
+  /** Creates a new, empty PrefixTrie. */
+
+  public PrefixTrie() {}
+
+
+  /**
+   * Creates a new PrefixTrie containing all String keys of a Dictionary.
+   * Keys which are not Strings are ignored.
+   *
+   * @param dict a Dictionary.
+   */
+
+  public PrefixTrie(Dictionary dict)
+  {
+    for(Enumeration e = dict.keys(); e.hasMoreElements();)
+    {
+      Object k = e.nextElement();
+      if(k instanceof String) add((String)k);
+    }
+  }
+
+
+  /**
+   * Adds a key to this trie.
+   *
+   * @param key a String.
+   * @return true if the key was added, false if it was already in the trie.
+   */
+
+  public boolean add(String key)
+  {
+    Node n = root;
+    for(int i=0, l=key.length(); i<l; i++) n = n.child(key.charAt(i), true);
+    if(n.value != null) return false;
+    n.value = key;
+    size++;
+    return true;
+  }
+
+
+  /**
+   * Maps a key to a value in this trie.
+   *
+   * @param key a String.
+   * @param value the value (not null).
+   * @return the previous value of the key or null if it did not have one.
+   */
+
+  public Object put(String key, Object value)
+  {
+    if(value == null) throw new NullPointerException();
+    Node n = root;
+    for(int i=0, l=key.length(); i<l; i++) n = n.child(key.charAt(i), true);
+    Object old = n.value;
+    n.value = value;
+    if(old == null) size++;
+    return old;
+  }
+
+
+  /**
+   * @return true if the trie contains the key, otherwise false.
+   */
+
+  public boolean contains(String key) { return get(key, 0, key.length()) != null; }
+
+
+  /**
+   * @return the value of a key or null if the trie does not contain it.
+   *         Keys which were added with <code>add()</code> are their own
+   *         values.
+   */
+
+  public Object get(String key) { return get(key, 0, key.length()); }
+
+
+  /**
+   * Looks up the key which is the region of a String between two indexes.
+   *
+   * @param s a String.
+   * @param start the index of the key's first character in <i>s</i>.
+   * @param end the index after the key's last character in <i>s</i>.
+   * @return the value of the key or null if the trie does not contain it.
+   */
+
+  public Object get(String s, int start, int end)
+  {
+    Node n = root;
+    for(int i=start; i<end; i++)
+      if((n = n.child(s.charAt(i), false)) == null) return null;
+    return n.value;
+  }
+
+
+  /**
+   * @return the number of keys in this trie.
+   */
+
+  public int size() { return size; }
+
+
+  /**
+   * Finds the shortest key which is a prefix of a String's suffix that
+   * starts at a given index.
+   *
+   * @param s a String.
+   * @param from the index in <i>s</i> at which the match starts.
+   * @return the length of the shortest matching key or -1 if no key
+   *         matches. The empty String (if it is a key) is never matched.
+   */
+
+  public int matchShortest(String s, int from)
+  {
+    Node n = root;
+    for(int i=from, l=s.length(); i<l; i++)
+    {
+      if((n = n.child(s.charAt(i), false)) == null) return -1;
+      if(n.value != null) return i-from+1;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Finds the longest key which is a prefix of a String's suffix that
+   * starts at a given index.
+   *
+   * @param s a String.
+   * @param from the index in <i>s</i> at which the match starts.
+   * @return the length of the longest matching key or -1 if no key
+   *         matches. The empty String (if it is a key) is never matched.
+   */
+
+  public int matchLongest(String s, int from)
+  {
+    Node n = root;
+    int found = -1;
+    for(int i=from, l=s.length(); i<l; i++)
+    {
+      if((n = n.child(s.charAt(i), false)) == null) break;
+      if(n.value != null) found = i-from+1;
+    }
+    return found;
+  }
+
+
+  /* A node with its child edges stored in sorted arrays */
+
+  private static final class Node implements Serializable
+  {
+    char[] labels;
+    Node[] children;
+    int count;
+    Object value;
+
+    Node child(char c, boolean create)
+    {
+      int lo = 0, hi = count-1;
+      while(lo <= hi)
+      {
+        int mid = (lo+hi) >>> 1;
+        char m = labels[mid];
+        if(m < c) lo = mid+1;
+        else if(m > c) hi = mid-1;
+        else return children[mid];
+      }
+      if(!create) return null;
+
+      if(labels == null)
+      {
+        labels = new char[2];
+        children = new Node[2];
+      }
+      else if(count == labels.length)
+      {
+        char[] nl = new char[count*2];
+        Node[] nc = new Node[count*2];
+        System.arraycopy(labels, 0, nl, 0, count);
+        System.arraycopy(children, 0, nc, 0, count);
+        labels = nl;
+        children = nc;
+      }
+      System.arraycopy(labels, lo, labels, lo+1, count-lo);
+      System.arraycopy(children, lo, children, lo+1, count-lo);
+      Node n = new Node();
+      labels[lo] = c;
+      children[lo] = n;
+      count++;
+      return n;
+    }
+  }
+}
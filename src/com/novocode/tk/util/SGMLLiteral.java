@@ -20,13 +20,20 @@
 
 package com.novocode.tk.util;
 
-import java.util.Hashtable;
+import java.io.Writer;
+import java.io.IOException;
 
 
 /**
  * A class with static utility methods to encode and decode SGML literals
  * as used by HTML.
  *
+ * <p>The encoding methods look up each character in a table and copy
+ * runs of characters which need no escaping in one piece. Strings which
+ * do not need to be changed at all are returned as they are. Entity names
+ * are decoded with a PrefixTrie which is built when the class is
+ * initialized.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fixed API. Fully documented.
  * </dl>
@@ -36,7 +43,22 @@ import java.util.Hashtable;
 
 public final class SGMLLiteral
 {
-  private static Hashtable entities;
+  private static final PrefixTrie entities = new PrefixTrie();
+
+  /* The replacement for each ASCII character or null if none is needed */
+  private static final String[] escapes = new String[128];
+
+  static
+  {
+    escapes['\t'] = "&#9;";
+    escapes['\n'] = "&#10;";
+    escapes['\r'] = "&#13;";
+    escapes[' ']  = "&#32;";
+    escapes['\"'] = "&#34;";
+    escapes['&']  = "&#38;";
+    escapes['<']  = "&lt;";
+    escapes['>']  = "&gt;";
+  }
 
 
   /* Dummy constructor */
@@ -51,74 +73,157 @@ public final class SGMLLiteral
    * original String.
    *
    * @param s a String to be encoded.
-   * @return the encoded String.
+   * @return the encoded String. This is <i>s</i> itself if it does not
+   *         contain any characters which need to be replaced.
    */
 
   public static String encode(String s)
   {
-    int l = s.length();
-    StringBuffer b = new StringBuffer(l+10);
+    int l = s.length(), el = encodedLength(s);
+    if(el == l) return s;
 
+    char[] b = new char[el];
+    int start = 0, pos = 0;
     for(int i=0; i<l; i++)
     {
       char c = s.charAt(i);
-
-      switch(c)
+      String e;
+      if(c < 128 && (e = escapes[c]) != null)
       {
-        case '\t': b.append("&#9;"); break;
-        case '\n': b.append("&#10;"); break;
-        case '\r': b.append("&#13;"); break;
-        case ' ' : b.append("&#32;"); break;
-        case '\"': b.append("&#34;"); break;
-        case '&' : b.append("&#38;"); break;
-        case '<' : b.append("&lt;"); break;
-        case '>' : b.append("&gt;"); break;
-        default  : b.append(c);
+        s.getChars(start, i, b, pos);
+        pos += i-start;
+        e.getChars(0, e.length(), b, pos);
+        pos += e.length();
+        start = i+1;
       }
     }
+    s.getChars(start, l, b, pos);
 
-    return b.toString();
+    return new String(b);
   }
 
 
-  /** Decode a string which contains encoded entities.
-   * All numeric entites and ISO-8859-1 character
-   * entities of HTML 4.0 are supported.
+  /** Encode a String as an SGML literal and write it to a Writer.
+   * Runs of characters which need no replacement are written with a
+   * single call.
    *
-   * @param s a String to be decoded.
-   * @return the decoded String.
+   * @param s a String to be encoded.
+   * @param out a Writer.
+   * @see #encode(java.lang.String)
    */
 
-  public static String decode(String s)
+  public static void encode(String s, Writer out) throws IOException
+  {
+    int l = s.length(), start = 0;
+    for(int i=0; i<l; i++)
+    {
+      char c = s.charAt(i);
+      String e;
+      if(c < 128 && (e = escapes[c]) != null)
+      {
+        if(i > start) out.write(s, start, i-start);
+        out.write(e);
+        start = i+1;
+      }
+    }
+    if(l > start) out.write(s, start, l-start);
+  }
+
+
+  /** Encode a String as an SGML literal and append it to a ByteString.
+   * The upper 8 bits of the String's characters are discarded.
+   *
+   * @param s a String to be encoded.
+   * @param out a ByteString.
+   * @return the ByteString <i>out</i>, modified.
+   * @see #encode(java.lang.String)
+   */
+
+  public static ByteString encode(String s, ByteString out)
   {
     int l = s.length();
-    StringBuffer b = new StringBuffer(l);
-    int idx = -1;
+    out.ensureCapacity(out.length + encodedLength(s));
+    byte[] b = out.data;
+    int start = 0, pos = out.offset + out.length;
     for(int i=0; i<l; i++)
     {
       char c = s.charAt(i);
-      if(idx == -1)
+      String e;
+      if(c < 128 && (e = escapes[c]) != null)
       {
-	if(c == '&') idx = i;
-	else b.append(c);
+        s.getBytes(start, i, b, pos);
+        pos += i-start;
+        e.getBytes(0, e.length(), b, pos);
+        pos += e.length();
+        start = i+1;
       }
-      else if(c == ';')
+    }
+    s.getBytes(start, l, b, pos);
+    out.length = pos + l - start - out.offset;
+    return out;
+  }
+
+
+  /** Computes the length of the SGML literal for a String.
+   *
+   * @param s a String.
+   * @return the length of <code>encode(s)</code>.
+   */
+
+  public static int encodedLength(String s)
+  {
+    int l = s.length(), el = l;
+    for(int i=0; i<l; i++)
+    {
+      char c = s.charAt(i);
+      if(c < 128 && escapes[c] != null) el += escapes[c].length() - 1;
+    }
+    return el;
+  }
+
+
+  /** Decode a string which contains encoded entities.
+   * All numeric entites (decimal and hexadecimal) and ISO-8859-1 character
+   * entities of HTML 4.0 are supported. Unknown entities are left
+   * unchanged.
+   *
+   * @param s a String to be decoded.
+   * @return the decoded String. This is <i>s</i> itself if it does not
+   *         contain any entities.
+   */
+
+  public static String decode(String s)
+  {
+    int i = s.indexOf('&');
+    if(i == -1) return s;
+
+    int l = s.length(), pos = i, start = i;
+    char[] b = new char[l];
+    s.getChars(0, i, b, 0);
+    while(i != -1)
+    {
+      int semi = s.indexOf(';', i+1);
+      if(semi == -1) break;
+      char ent = decodeEntity(s, i+1, semi);
+      if(ent != (char)-1)
       {
-	char ent = decodeEntity(s.substring(idx+1,i));
-	if(ent == -1) b.append(s.substring(idx,i+1));
-	else b.append(ent);
-	idx = -1;
+        s.getChars(start, i, b, pos);
+        pos += i-start;
+        b[pos++] = ent;
+        start = semi+1;
       }
+      i = s.indexOf('&', semi+1);
     }
-    if(idx != -1) b.append(s.substring(idx,l));
-    return b.toString();
+    s.getChars(start, l, b, pos);
+    pos += l-start;
+    return new String(b, 0, pos);
   }
 
 
   /** Decode a single entity, without the leading "&amp;" and the
    * trailing ";" characters. The method returns -1 if the
-   * entity is unknown. All numeric entites and ISO-8859-1 character
-   * entities of HTML 4.0 are supported.
+   * entity is unknown. All numeric entites (decimal and hexadecimal) and
+   * ISO-8859-1 character entities of HTML 4.0 are supported.
    *
    * @param s a String to be decoded.
    * @return the decoded String or -1.
@@ -126,124 +231,145 @@ public final class SGMLLiteral
 
   public static char decodeEntity(String s)
   {
-    if(s.length() == 0) return (char)-1;
+    return decodeEntity(s, 0, s.length());
+  }
 
-    if(s.charAt(0) == '#')
+
+  private static char decodeEntity(String s, int start, int end)
+  {
+    if(start >= end) return (char)-1;
+
+    if(s.charAt(start) == '#')
     {
-      try
+      int radix = 10, n = 0;
+      if(++start < end && (s.charAt(start) == 'x' || s.charAt(start) == 'X'))
       {
-	return (char)Integer.parseInt(s.substring(1));
+        radix = 16;
+        start++;
       }
-      catch(NumberFormatException e) { return (char)-1; }
-    }
-
-    if(entities == null)
-    {
-      entities = new Hashtable();
-      entities.put("quot"   , "\"");
-      entities.put("amp"    , "&");
-      entities.put("lt"     , "<");
-      entities.put("gt"     , ">");
-      entities.put("nbsp"   , String.valueOf((char)160));
-      entities.put("iexcl"  , String.valueOf((char)161));
-      entities.put("cent"   , String.valueOf((char)162));
-      entities.put("pound"  , String.valueOf((char)163));
-      entities.put("curren" , String.valueOf((char)164));
-      entities.put("yen"    , String.valueOf((char)165));
-      entities.put("brvbar" , String.valueOf((char)166));
-      entities.put("sect"   , String.valueOf((char)167));
-      entities.put("uml"    , String.valueOf((char)168));
-      entities.put("copy"   , String.valueOf((char)169));
-      entities.put("ordf"   , String.valueOf((char)170));
-      entities.put("laquo"  , String.valueOf((char)171));
-      entities.put("not"    , String.valueOf((char)172));
-      entities.put("shy"    , String.valueOf((char)173));
-      entities.put("reg"    , String.valueOf((char)174));
-      entities.put("macr"   , String.valueOf((char)175));
-      entities.put("deg"    , String.valueOf((char)176));
-      entities.put("plusmn" , String.valueOf((char)177));
-      entities.put("sup2"   , String.valueOf((char)178));
-      entities.put("sup3"   , String.valueOf((char)179));
-      entities.put("acute"  , String.valueOf((char)180));
-      entities.put("micro"  , String.valueOf((char)181));
-      entities.put("para"   , String.valueOf((char)182));
-      entities.put("middot" , String.valueOf((char)183));
-      entities.put("cedil"  , String.valueOf((char)184));
-      entities.put("sup1"   , String.valueOf((char)185));
-      entities.put("ordm"   , String.valueOf((char)186));
-      entities.put("raquo"  , String.valueOf((char)187));
-      entities.put("frac14" , String.valueOf((char)188));
-      entities.put("frac12" , String.valueOf((char)189));
-      entities.put("frac34" , String.valueOf((char)190));
-      entities.put("iquest" , String.valueOf((char)191));
-      entities.put("Agrave" , String.valueOf((char)192));
-      entities.put("Aacute" , String.valueOf((char)193));
-      entities.put("Acirc"  , String.valueOf((char)194));
-      entities.put("Atilde" , String.valueOf((char)195));
-      entities.put("Auml"   , String.valueOf((char)196));
-      entities.put("Aring"  , String.valueOf((char)197));
-      entities.put("AElig"  , String.valueOf((char)198));
-      entities.put("Ccedil" , String.valueOf((char)199));
-      entities.put("Egrave" , String.valueOf((char)200));
-      entities.put("Eacute" , String.valueOf((char)201));
-      entities.put("Ecirc"  , String.valueOf((char)202));
-      entities.put("Euml"   , String.valueOf((char)203));
-      entities.put("Igrave" , String.valueOf((char)204));
-      entities.put("Iacute" , String.valueOf((char)205));
-      entities.put("Icirc"  , String.valueOf((char)206));
-      entities.put("Iuml"   , String.valueOf((char)207));
-      entities.put("ETH"    , String.valueOf((char)208));
-      entities.put("Ntilde" , String.valueOf((char)209));
-      entities.put("Ograve" , String.valueOf((char)210));
-      entities.put("Oacute" , String.valueOf((char)211));
-      entities.put("Ocirc"  , String.valueOf((char)212));
-      entities.put("Otilde" , String.valueOf((char)213));
-      entities.put("Ouml"   , String.valueOf((char)214));
-      entities.put("times"  , String.valueOf((char)215));
-      entities.put("Oslash" , String.valueOf((char)216));
-      entities.put("Ugrave" , String.valueOf((char)217));
-      entities.put("Uacute" , String.valueOf((char)218));
-      entities.put("Ucirc"  , String.valueOf((char)219));
-      entities.put("Uuml"   , String.valueOf((char)220));
-      entities.put("Yacute" , String.valueOf((char)221));
-      entities.put("THORN"  , String.valueOf((char)222));
-      entities.put("szlig"  , String.valueOf((char)223));
-      entities.put("agrave" , String.valueOf((char)224));
-      entities.put("aacute" , String.valueOf((char)225));
-      entities.put("acirc"  , String.valueOf((char)226));
-      entities.put("atilde" , String.valueOf((char)227));
-      entities.put("auml"   , String.valueOf((char)228));
-      entities.put("aring"  , String.valueOf((char)229));
-      entities.put("aelig"  , String.valueOf((char)230));
-      entities.put("ccedil" , String.valueOf((char)231));
-      entities.put("egrave" , String.valueOf((char)232));
-      entities.put("eacute" , String.valueOf((char)233));
-      entities.put("ecirc"  , String.valueOf((char)234));
-      entities.put("euml"   , String.valueOf((char)235));
-      entities.put("igrave" , String.valueOf((char)236));
-      entities.put("iacute" , String.valueOf((char)237));
-      entities.put("icirc"  , String.valueOf((char)238));
-      entities.put("iuml"   , String.valueOf((char)239));
-      entities.put("eth"    , String.valueOf((char)240));
-      entities.put("ntilde" , String.valueOf((char)241));
-      entities.put("ograve" , String.valueOf((char)242));
-      entities.put("oacute" , String.valueOf((char)243));
-      entities.put("ocirc"  , String.valueOf((char)244));
-      entities.put("otilde" , String.valueOf((char)245));
-      entities.put("ouml"   , String.valueOf((char)246));
-      entities.put("divide" , String.valueOf((char)247));
-      entities.put("oslash" , String.valueOf((char)248));
-      entities.put("ugrave" , String.valueOf((char)249));
-      entities.put("uacute" , String.valueOf((char)250));
-      entities.put("ucirc"  , String.valueOf((char)251));
-      entities.put("uuml"   , String.valueOf((char)252));
-      entities.put("yacute" , String.valueOf((char)253));
-      entities.put("thorn"  , String.valueOf((char)254));
-      entities.put("yuml"   , String.valueOf((char)255));
+      if(start == end) return (char)-1;
+      for(; start<end; start++)
+      {
+        int d = Character.digit(s.charAt(start), radix);
+        if(d < 0) return (char)-1;
+        if((n = n*radix + d) > 0xFFFF) return (char)-1;
+      }
+      return (char)n;
     }
 
-    String dec = (String)entities.get(s);
+    Character dec = (Character)entities.get(s, start, end);
     if(dec == null) return (char)-1;
-    else return dec.charAt(0);
+    else return dec.charValue();
+  }
+
+
+  static
+  {
+    entity("quot",   '"');
+    entity("amp",    '&');
+    entity("lt",     '<');
+    entity("gt",     '>');
+    entity("nbsp",   (char)160);
+    entity("iexcl",  (char)161);
+    entity("cent",   (char)162);
+    entity("pound",  (char)163);
+    entity("curren", (char)164);
+    entity("yen",    (char)165);
+    entity("brvbar", (char)166);
+    entity("sect",   (char)167);
+    entity("uml",    (char)168);
+    entity("copy",   (char)169);
+    entity("ordf",   (char)170);
+    entity("laquo",  (char)171);
+    entity("not",    (char)172);
+    entity("shy",    (char)173);
+    entity("reg",    (char)174);
+    entity("macr",   (char)175);
+    entity("deg",    (char)176);
+    entity("plusmn", (char)177);
+    entity("sup2",   (char)178);
+    entity("sup3",   (char)179);
+    entity("acute",  (char)180);
+    entity("micro",  (char)181);
+    entity("para",   (char)182);
+    entity("middot", (char)183);
+    entity("cedil",  (char)184);
+    entity("sup1",   (char)185);
+    entity("ordm",   (char)186);
+    entity("raquo",  (char)187);
+    entity("frac14", (char)188);
+    entity("frac12", (char)189);
+    entity("frac34", (char)190);
+    entity("iquest", (char)191);
+    entity("Agrave", (char)192);
+    entity("Aacute", (char)193);
+    entity("Acirc",  (char)194);
+    entity("Atilde", (char)195);
+    entity("Auml",   (char)196);
+    entity("Aring",  (char)197);
+    entity("AElig",  (char)198);
+    entity("Ccedil", (char)199);
+    entity("Egrave", (char)200);
+    entity("Eacute", (char)201);
+    entity("Ecirc",  (char)202);
+    entity("Euml",   (char)203);
+    entity("Igrave", (char)204);
+    entity("Iacute", (char)205);
+    entity("Icirc",  (char)206);
+    entity("Iuml",   (char)207);
+    entity("ETH",    (char)208);
+    entity("Ntilde", (char)209);
+    entity("Ograve", (char)210);
+    entity("Oacute", (char)211);
+    entity("Ocirc",  (char)212);
+    entity("Otilde", (char)213);
+    entity("Ouml",   (char)214);
+    entity("times",  (char)215);
+    entity("Oslash", (char)216);
+    entity("Ugrave", (char)217);
+    entity("Uacute", (char)218);
+    entity("Ucirc",  (char)219);
+    entity("Uuml",   (char)220);
+    entity("Yacute", (char)221);
+    entity("THORN",  (char)222);
+    entity("szlig",  (char)223);
+    entity("agrave", (char)224);
+    entity("aacute", (char)225);
+    entity("acirc",  (char)226);
+    entity("atilde", (char)227);
+    entity("auml",   (char)228);
+    entity("aring",  (char)229);
+    entity("aelig",  (char)230);
+    entity("ccedil", (char)231);
+    entity("egrave", (char)232);
+    entity("eacute", (char)233);
+    entity("ecirc",  (char)234);
+    entity("euml",   (char)235);
+    entity("igrave", (char)236);
+    entity("iacute", (char)237);
+    entity("icirc",  (char)238);
+    entity("iuml",   (char)239);
+    entity("eth",    (char)240);
+    entity("ntilde", (char)241);
+    entity("ograve", (char)242);
+    entity("oacute", (char)243);
+    entity("ocirc",  (char)244);
+    entity("otilde", (char)245);
+    entity("ouml",   (char)246);
+    entity("divide", (char)247);
+    entity("oslash", (char)248);
+    entity("ugrave", (char)249);
+    entity("uacute", (char)250);
+    entity("ucirc",  (char)251);
+    entity("uuml",   (char)252);
+    entity("yacute", (char)253);
+    entity("thorn",  (char)254);
+    entity("yuml",   (char)255);
+  }
+
+
+  private static void entity(String name, char c)
+  {
+    entities.put(name, new Character(c));
   }
 }
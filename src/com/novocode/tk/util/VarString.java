@@ -21,6 +21,8 @@
 package com.novocode.tk.util;
 
 import java.util.Dictionary;
+import java.io.Writer;
+import java.io.IOException;
 import java.io.Serializable;
 
 
@@ -31,6 +33,14 @@ import java.io.Serializable;
  * expanded by replacing all variable names by the variables' string values
  * given in a Dictionary.
  *
+ * <p>A VarString compiles its String into a VarTemplate when it is
+ * expanded for the first time and reuses the template for subsequent
+ * expansions. A template depends on the keys of the Dictionary, so it is
+ * only used with an immutable Dictionary. With a mutable Dictionary, the
+ * VarString only remembers the positions of the '$' characters and
+ * resolves the variable names at every expansion, at a cost which does
+ * not depend on the size of the Dictionary.
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Relatively mature. Fully documented.
  * </dl>
@@ -84,6 +94,8 @@ public final class VarString implements Serializable
   private String str, expanded;
   private Dictionary dict;
   private boolean mutableDict;
+  private transient VarTemplate template;
+  private transient int[] dollars;
 
 
   /**
@@ -137,6 +149,8 @@ public final class VarString implements Serializable
   {
     this.str = str;
     this.expanded = null;
+    this.template = null;
+    this.dollars = null;
   }
 
 
@@ -164,6 +178,7 @@ public final class VarString implements Serializable
   {
     this.dict = dict;
     this.expanded = null;
+    this.template = null;
     this.mutableDict = mutableDict;
   }
 
@@ -201,9 +216,91 @@ public final class VarString implements Serializable
 
   public final synchronized String expand()
   {
-    if(mutableDict) return expand(str, dict);
-    if(expanded == null) expanded = expand(str, dict);
-    return expanded;
+    if(expanded != null) return expanded;
+    if(str == null || dict == null) return str;
+    if(mutableDict) return resolve();
+    return expanded = getTemplate().expand(dict);
+  }
+
+
+  /**
+   * Writes the expanded String to a Writer.
+   *
+   * @param out a Writer.
+   * @see #expand()
+   */
+
+  public final synchronized void writeTo(Writer out) throws IOException
+  {
+    if(str == null) return;
+    if(expanded != null) out.write(expanded);
+    else if(dict == null) out.write(str);
+    else if(mutableDict) out.write(resolve());
+    else getTemplate().writeTo(out, dict);
+  }
+
+
+  /**
+   * Appends the expanded String to a ByteString. The upper 8 bits of all
+   * characters are discarded.
+   *
+   * @param out a ByteString.
+   * @return the ByteString <i>out</i>, modified.
+   * @see #expand()
+   */
+
+  public final synchronized ByteString appendTo(ByteString out)
+  {
+    if(str == null) return out;
+    out.ensureCapacity(out.length + str.length());
+    if(expanded != null) return out.append(expanded);
+    else if(dict == null) return out.append(str);
+    else if(mutableDict) return out.append(resolve());
+    else return getTemplate().appendTo(out, dict);
+  }
+
+
+  private VarTemplate getTemplate()
+  {
+    if(template == null) template = new VarTemplate(str, dict);
+    return template;
+  }
+
+
+  /* Expands the String with the same rules as expand(String, Dictionary)
+   * but only looks at the positions of '$' characters, which are found
+   * once, and copies the text between variables in one piece. */
+
+  private String resolve()
+  {
+    if(dollars == null)
+    {
+      int n = 0;
+      for(int i = str.indexOf('$'); i != -1; i = str.indexOf('$', i+1)) n++;
+      dollars = new int[n];
+      n = 0;
+      for(int i = str.indexOf('$'); i != -1; i = str.indexOf('$', i+1))
+	dollars[n++] = i;
+    }
+    if(dollars.length == 0) return str;
+    int len = str.length(), start = 0;
+    StringBuffer ex = new StringBuffer(len + 16 * dollars.length);
+    for(int i=0; i<dollars.length; i++)
+    {
+      int d = dollars[i];
+      if(d < start) continue;
+      for(int j=d+2; j<=len; j++)
+      {
+	Object v = dict.get(str.substring(d+1, j));
+	if(v != null)
+	{
+	  ex.append(str, start, d).append(v.toString());
+	  start = j;
+	  break;
+	}
+      }
+    }
+    return ex.append(str, start, len).toString();
   }
 
 
@@ -0,0 +1,191 @@
+/*
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations under
+ * the License.
+ *
+ * The Original Code is Novocode Toolkit.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefan Zeiger <szeiger@novocode.com>. All Rights Reserved.
+ *
+ * A copy of the License is included in the file LICENSE.
+ */
+
+
+package com.novocode.tk.util;
+
+import java.util.Dictionary;
+import java.io.Writer;
+import java.io.IOException;
+import java.io.Serializable;
+
+
+/**
+ * A compiled form of a String containing Unix-style $VARIABLE directives.
+ *
+ * <p>The String is parsed only once, into literal text and variable
+ * names. Variable names are resolved with the same rules as in
+ * VarString.expand(String, Dictionary) (the shortest key that matches
+ * is taken) but with a PrefixTrie of the known keys, so that compiling
+ * a template takes a single scan over the String. Expanding a template
+ * takes one Dictionary lookup per variable and can write directly to a
+ * Writer or a ByteString.
+ *
+ * <p>A template remains valid as long as the set of keys does not change.
+ * The values in the Dictionary may change freely between expansions.
+ * If a variable has no value when the template is expanded, the variable
+ * directive is left unchanged.
+ *
+ * <p><dl><dt><b>Maturity:</b><dd>
+ * New. Fully documented.
+ * </dl>
+ *
+ * @author Stefan Zeiger
+ * @see com.novocode.tk.util.VarString
+ * @see com.novocode.tk.util.PrefixTrie
+ */
+
+public final class VarTemplate implements Serializable
+{
+  /* text[0] var[0] text[1] var[1] ... text[n] */
+  private final String[] text;
+  private final String[] vars;
+  private final int textLength;
+
+
+  /**
+   * Compiles a String with the keys of a Dictionary.
+   *
+   * @param in a String containing $VARIABLE directives.
+   * @param dict a Dictionary which maps String keys to Object elements.
+   */
+
+  public VarTemplate(String in, Dictionary dict)
+  {
+    this(in, new PrefixTrie(dict));
+  }
+
+
+  /**
+   * Compiles a String with a set of keys. Use this constructor to share
+   * a PrefixTrie among many templates which use the same Dictionary.
+   *
+   * @param in a String containing $VARIABLE directives.
+   * @param keys a PrefixTrie containing the variable names.
+   */
+
+  public VarTemplate(String in, PrefixTrie keys)
+  {
+    int inlen = in.length(), n = 0, start = 0, pos = 0;
+    String[] t = new String[8], v = new String[8];
+
+    while((pos = in.indexOf('$', pos)) != -1)
+    {
+      int l = keys.matchShortest(in, pos+1);
+      if(l == -1) { pos++; continue; }
+      if(n+1 == t.length)
+      {
+        String[] nt = new String[n*2], nv = new String[n*2];
+        System.arraycopy(t, 0, nt, 0, n);
+        System.arraycopy(v, 0, nv, 0, n);
+        t = nt;
+        v = nv;
+      }
+      t[n] = in.substring(start, pos);
+      v[n++] = in.substring(pos+1, pos+1+l);
+      pos = start = pos+1+l;
+    }
+    t[n] = in.substring(start);
+
+    text = new String[n+1];
+    vars = new String[n];
+    System.arraycopy(t, 0, text, 0, n+1);
+    System.arraycopy(v, 0, vars, 0, n);
+    int tl = 0;
+    for(int i=0; i<=n; i++) tl += text[i].length();
+    textLength = tl;
+  }
+
+
+  /**
+   * @return the number of variable directives in this template.
+   */
+
+  public int getVariableCount() { return vars.length; }
+
+
+  /**
+   * Expands this template.
+   *
+   * @param dict a Dictionary which maps String keys to Object elements.
+   *             Object.toString() is called on the elements to get their
+   *             String representation.
+   * @return the expanded String.
+   */
+
+  public String expand(Dictionary dict)
+  {
+    if(vars.length == 0) return text[0];
+    StringBuffer ex = new StringBuffer(textLength + vars.length * 16);
+    ex.append(text[0]);
+    for(int i=0; i<vars.length; i++)
+    {
+      ex.append(value(dict, i));
+      ex.append(text[i+1]);
+    }
+    return ex.toString();
+  }
+
+
+  /**
+   * Expands this template and writes the result to a Writer.
+   *
+   * @param out a Writer.
+   * @param dict a Dictionary which maps String keys to Object elements.
+   */
+
+  public void writeTo(Writer out, Dictionary dict) throws IOException
+  {
+    out.write(text[0]);
+    for(int i=0; i<vars.length; i++)
+    {
+      out.write(value(dict, i));
+      out.write(text[i+1]);
+    }
+  }
+
+
+  /**
+   * Expands this template and appends the result to a ByteString.
+   * The upper 8 bits of all characters are discarded.
+   *
+   * @param out a ByteString.
+   * @param dict a Dictionary which maps String keys to Object elements.
+   * @return the ByteString <i>out</i>, modified.
+   */
+
+  public ByteString appendTo(ByteString out, Dictionary dict)
+  {
+    out.ensureCapacity(out.length + textLength + vars.length * 16);
+    out.append(text[0]);
+    for(int i=0; i<vars.length; i++)
+    {
+      out.append(value(dict, i));
+      out.append(text[i+1]);
+    }
+    return out;
+  }
+
+
+  private String value(Dictionary dict, int i)
+  {
+    Object v = dict.get(vars[i]);
+    return v == null ? "$" + vars[i] : v.toString();
+  }
+}
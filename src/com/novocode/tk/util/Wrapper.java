@@ -22,6 +22,12 @@ package com.novocode.tk.util;
 
 import java.lang.reflect.*;
 import java.util.Properties;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.StringTokenizer;
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
 
 
 /**
@@ -34,6 +40,30 @@ import java.util.Properties;
  * "java com.novocode.tk.util.Wrapper -Dfoo=bar MyClass arg1 arg2" if the
  * <i>java</i> command does not understand the "-D" option.
  *
+ * <P>The Wrapper can also speed up the start of short-lived
+ * applications. The following options may be given before the class
+ * name:
+ *
+ * <dl>
+ * <dt><code>-record=<i>file</i></code>
+ * <dd>Runs the application in a training mode and writes the names of
+ *   all classes which were loaded for it to the given index file when
+ *   the JVM exits. The application classes are loaded from the class
+ *   path by a separate class loader in this mode.
+ * <dt><code>-preload=<i>file</i></code>
+ * <dd>Reads an index file and loads (but does not initialize) the
+ *   listed classes on background threads while the application starts.
+ *   Classes which cannot be found are ignored, so an outdated index
+ *   does no harm.
+ * <dt><code>-threads=<i>n</i></code>
+ * <dd>The number of preloading threads. The default is the number of
+ *   available processors.
+ * <dt><code>-classlist=<i>file</i></code>
+ * <dd>Writes the recorded (or else the preloaded) classes in the format
+ *   of a class list for a JDK class data sharing archive (see the
+ *   JVM option <code>-XX:SharedClassListFile</code>).
+ * </dl>
+ *
  * <p><dl><dt><b>Maturity:</b><dd>
  * Mature. Fixed API. Fully documented. This class is used directly
  * by the user of a Java application and not by an application
@@ -52,7 +82,8 @@ public final class Wrapper
   public static void main(String[] args)
   {
     Properties sys = System.getProperties();
-    String clname;
+    String clname, record = null, preload = null, classlist = null;
+    int threads = Runtime.getRuntime().availableProcessors();
     int i;
 
     for(i=0; i<args.length; i++)
@@ -65,6 +96,15 @@ public final class Wrapper
 	if(pos != (args[i].length()-1)) value = args[i].substring(pos+1);
 	sys.put(name, value);
       }
+      else if(args[i].startsWith("-record=")) record = args[i].substring(8);
+      else if(args[i].startsWith("-preload=")) preload = args[i].substring(9);
+      else if(args[i].startsWith("-classlist="))
+        classlist = args[i].substring(11);
+      else if(args[i].startsWith("-threads="))
+      {
+        try { threads = Integer.parseInt(args[i].substring(9)); }
+        catch(NumberFormatException e) { fail("Illegal argument "+args[i]); }
+      }
       else break;
     }
 
@@ -74,10 +114,40 @@ public final class Wrapper
     String[] pargs = new String[args.length-i];
     for(int j=0; j<pargs.length; j++, i++) pargs[j] = args[i];
 
+    ClassLoader loader = ClassLoader.getSystemClassLoader();
+    Vector names = null;
+
+    if(record != null)
+    {
+      RecordingLoader rl = new RecordingLoader(classPath(), loader.getParent());
+      Thread.currentThread().setContextClassLoader(rl);
+      Runtime.getRuntime().addShutdownHook(new IndexWriter(rl, record, classlist));
+      loader = rl;
+    }
+    else if(preload != null)
+    {
+      try { names = readIndex(preload); }
+      catch(IOException e) { fail("Cannot read index "+preload+": "+e); }
+      if(classlist != null)
+      {
+        try { writeClassList(names, classlist); }
+        catch(IOException e) { fail("Cannot write class list "+classlist+": "+e); }
+      }
+      if(threads < 1) threads = 1;
+      for(int j=0; j<threads; j++)
+      {
+        Thread t = new Thread(new Preloader(names, j, threads, loader),
+                              "Wrapper preloader "+j);
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY+1);
+        t.start();
+      }
+    }
+
     Method meth = null;
     try
     {
-      Class cl = Class.forName(clname);
+      Class cl = Class.forName(clname, true, loader);
       meth = cl.getDeclaredMethod("main", new Class[] {String[].class});
     }
     catch(Exception e) { fail(e.toString()); }
@@ -101,4 +171,140 @@ public final class Wrapper
     System.err.println("Wrapper: "+s);
     System.exit(1);
   }
+
+
+  private static URL[] classPath()
+  {
+    StringTokenizer tok = new StringTokenizer
+      (System.getProperty("java.class.path", "."), File.pathSeparator);
+    Vector v = new Vector();
+    while(tok.hasMoreTokens())
+    {
+      try { v.addElement(new File(tok.nextToken()).toURI().toURL()); }
+      catch(IOException e) {}
+    }
+    URL[] urls = new URL[v.size()];
+    v.copyInto(urls);
+    return urls;
+  }
+
+
+  private static Vector readIndex(String file) throws IOException
+  {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    Vector v = new Vector();
+    try
+    {
+      String line;
+      while((line = in.readLine()) != null)
+      {
+        line = line.trim();
+        if(line.length() != 0 && line.charAt(0) != '#') v.addElement(line);
+      }
+    }
+    finally { in.close(); }
+    return v;
+  }
+
+
+  private static void writeIndex(Vector names, String file) throws IOException
+  {
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    out.println("# Wrapper class index");
+    for(int i=0; i<names.size(); i++) out.println(names.elementAt(i));
+    out.close();
+    if(out.checkError()) throw new IOException("Error writing "+file);
+  }
+
+
+  private static void writeClassList(Vector names, String file) throws IOException
+  {
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    for(int i=0; i<names.size(); i++)
+      out.println(((String)names.elementAt(i)).replace('.', '/'));
+    out.close();
+    if(out.checkError()) throw new IOException("Error writing "+file);
+  }
+
+
+  /* Loads the application classes from the class path and records the
+   * names of all classes which are loaded through it, including the
+   * system classes they refer to, in load order. */
+
+  private static final class RecordingLoader extends URLClassLoader
+  {
+    private final Vector names = new Vector();
+    private final Hashtable seen = new Hashtable();
+
+    RecordingLoader(URL[] urls, ClassLoader parent) { super(urls, parent); }
+
+    protected Class loadClass(String name, boolean resolve)
+                    throws ClassNotFoundException
+    {
+      Class c = super.loadClass(name, resolve);
+      synchronized(names)
+      {
+        if(seen.put(name, name) == null) names.addElement(name);
+      }
+      return c;
+    }
+
+    Vector getNames()
+    {
+      synchronized(names) { return (Vector)names.clone(); }
+    }
+  }
+
+
+  private static final class IndexWriter extends Thread
+  {
+    private final RecordingLoader loader;
+    private final String index, classlist;
+
+    IndexWriter(RecordingLoader loader, String index, String classlist)
+    {
+      this.loader = loader;
+      this.index = index;
+      this.classlist = classlist;
+    }
+
+    public void run()
+    {
+      Vector names = loader.getNames();
+      try
+      {
+        writeIndex(names, index);
+        if(classlist != null) writeClassList(names, classlist);
+      }
+      catch(IOException e) { System.err.println("Wrapper: "+e); }
+    }
+  }
+
+
+  /* Loads every n-th class of the index, starting at a given offset, so
+   * that all threads start with the classes which are needed first. */
+
+  private static final class Preloader implements Runnable
+  {
+    private final Vector names;
+    private final int start, step;
+    private final ClassLoader loader;
+
+    Preloader(Vector names, int start, int step, ClassLoader loader)
+    {
+      this.names = names;
+      this.start = start;
+      this.step = step;
+      this.loader = loader;
+    }
+
+    public void run()
+    {
+      for(int i=start; i<names.size(); i+=step)
+      {
+        try { Class.forName((String)names.elementAt(i), false, loader); }
+        catch(Throwable t) {}
+      }
+    }
+  }
 }